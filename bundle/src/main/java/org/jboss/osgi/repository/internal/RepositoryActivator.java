@@ -30,7 +30,6 @@ import java.util.List;
 import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.RepositoryStorageFactory;
 import org.jboss.osgi.repository.ResourceInstaller;
-import org.jboss.osgi.repository.XPersistentRepository;
 import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
 import org.jboss.osgi.repository.spi.AbstractResourceInstaller;
@@ -52,6 +51,8 @@ import org.osgi.service.repository.Repository;
 public class RepositoryActivator implements BundleActivator {
 
     private List<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+    private AbstractPersistentRepository repository;
+    private MavenIdentityRepository mavenRepository;
 
     @Override
     public void start(final BundleContext context) throws Exception {
@@ -75,8 +76,10 @@ public class RepositoryActivator implements BundleActivator {
         };
 
         // Setup the repositories
-        XPersistentRepository repository = new AbstractPersistentRepository(factory);
-        repository.addRepositoryDelegate(new MavenIdentityRepository(propProvider));
+        repository = new AbstractPersistentRepository(factory);
+        repository.setWriteBehindImport(Boolean.parseBoolean(propProvider.getProperty(XRepository.PROPERTY_REPOSITORY_WRITE_BEHIND_IMPORT, null)));
+        mavenRepository = new MavenIdentityRepository(propProvider);
+        repository.addRepositoryDelegate(mavenRepository);
 
         // Register the {@link XRepository} service
         Dictionary<String, Object> props = new Hashtable<String, Object>();
@@ -94,6 +97,17 @@ public class RepositoryActivator implements BundleActivator {
         for (ServiceRegistration<?> reg : registrations) {
             reg.unregister();
         }
+        registrations.clear();
+
+        // Stop the background threads of the repositories
+        if (repository != null) {
+            repository.setWriteBehindImport(false);
+            repository = null;
+        }
+        if (mavenRepository != null) {
+            mavenRepository.close();
+            mavenRepository = null;
+        }
     }
 
     private File getRepositoryStorageDir(ConfigurationPropertyProvider propProvider, BundleContext context) {
@@ -54,11 +54,7 @@ public final class AttributeValueHandler {
         switch (type) {
             case String:
                 if (listType) {
-                    List<String> list = new ArrayList<String>();
-                    for (String val : split(valstr)) {
-                        list.add(val.trim());
-                    }
-                    value = list;
+                    value = split(valstr);
                 } else {
                     value = valstr;
                 }
@@ -67,7 +63,7 @@ public final class AttributeValueHandler {
                 if (listType) {
                     List<Version> list = new ArrayList<Version>();
                     for (String val : split(valstr)) {
-                        list.add(Version.parseVersion(val.trim()));
+                        list.add(Version.parseVersion(val));
                     }
                     value = list;
                 } else {
@@ -78,7 +74,7 @@ public final class AttributeValueHandler {
                 if (listType) {
                     List<Long> list = new ArrayList<Long>();
                     for (String val : split(valstr)) {
-                        list.add(Long.parseLong(val.trim()));
+                        list.add(Long.parseLong(val));
                     }
                     value = list;
                 } else {
@@ -89,7 +85,7 @@ public final class AttributeValueHandler {
                 if (listType) {
                     List<Double> list = new ArrayList<Double>();
                     for (String val : split(valstr)) {
-                        list.add(Double.parseDouble(val.trim()));
+                        list.add(Double.parseDouble(val));
                     }
                     value = list;
                 } else {
@@ -103,36 +99,71 @@ public final class AttributeValueHandler {
         return new AttributeValue(type, value);
     }
 
+    /**
+     * Split a list value into its trimmed elements.
+     *
+     * Token boundaries are tracked as index ranges over the given string.
+     * Only tokens that actually contain escape sequences are copied.
+     */
     private static List<String> split(String valstr) {
-        boolean escape = false;
-        StringBuffer tok = new StringBuffer();
         List<String> result = new ArrayList<String>();
-
-        for (int i = 0; i < valstr.length(); i++) {
+        int length = valstr.length();
+        int start = 0;
+        boolean escaped = false;
+        int i = 0;
+        while (i < length) {
             char ch = valstr.charAt(i);
-            if (ch == '\\' && !escape) {
-                escape = true;
-                continue;
-            }
-            if (escape && ch != '\\' && ch != ',') {
-                tok.append('\\');
-                escape = false;
-            }
-            if (ch == ',' && !escape) {
-                result.add(tok.toString());
-                tok = new StringBuffer();
-                escape = false;
-                continue;
+            if (ch == '\\') {
+                escaped = true;
+                i += 2;
+            } else if (ch == ',') {
+                result.add(escaped ? unescape(valstr, start, i).trim() : trim(valstr, start, i));
+                escaped = false;
+                start = ++i;
+            } else {
+                i++;
             }
-            tok.append(ch);
-            escape = false;
         }
-        if (tok.length() > 0) {
-            result.add(tok.toString());
+        if (start < length) {
+            if (escaped) {
+                String tok = unescape(valstr, start, length);
+                if (tok.length() > 0) {
+                    result.add(tok.trim());
+                }
+            } else {
+                result.add(trim(valstr, start, length));
+            }
         }
         return result;
     }
 
+    private static String trim(String valstr, int start, int end) {
+        while (start < end && valstr.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && valstr.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return valstr.substring(start, end);
+    }
+
+    private static String unescape(String valstr, int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char ch = valstr.charAt(i);
+            if (ch == '\\') {
+                if (++i == end)
+                    break;
+                ch = valstr.charAt(i);
+                if (ch != '\\' && ch != ',') {
+                    builder.append('\\');
+                }
+            }
+            builder.append(ch);
+        }
+        return builder.toString();
+    }
+
     public static class AttributeValue {
         private final Type type;
         private final Object value;
@@ -181,35 +212,57 @@ public final class AttributeValueHandler {
         }
 
         public String getValueString() {
-            StringBuffer result = new StringBuffer();
+            if (!listType && (type != Type.String || !needsEscape(value.toString()))) {
+                return value.toString();
+            }
+            StringBuilder result = new StringBuilder();
+            appendValueString(result);
+            return result.toString();
+        }
+
+        /**
+         * Append the escaped value string to the given builder.
+         *
+         * This allows a writer to reuse one buffer for all attribute values.
+         */
+        public void appendValueString(StringBuilder builder) {
             if (listType) {
+                boolean first = true;
                 for (Object val : (List<?>) value) {
-                    if (result.length() > 0) {
-                        result.append(", ");
+                    if (!first) {
+                        builder.append(", ");
                     }
-                    result.append(escape(val));
+                    appendEscaped(builder, val);
+                    first = false;
                 }
             } else {
-                result.append(escape(value));
+                appendEscaped(builder, value);
             }
-            return result.toString();
         }
 
-        private String escape(Object val) {
+        private void appendEscaped(StringBuilder builder, Object val) {
             String valstr = val.toString();
-            if (type != Type.String)
-                return valstr;
-            
-            StringBuffer result = new StringBuffer();
+            if (type != Type.String || !needsEscape(valstr)) {
+                builder.append(valstr);
+                return;
+            }
             for (int i = 0; i < valstr.length(); i++) {
                 char ch = valstr.charAt(i);
                 if (ch == '\\' || ch == ',') {
-                    result.append("\\" + ch);
-                } else {
-                    result.append(ch);
+                    builder.append('\\');
                 }
+                builder.append(ch);
             }
-            return result.toString();
+        }
+
+        private static boolean needsEscape(String valstr) {
+            for (int i = 0; i < valstr.length(); i++) {
+                char ch = valstr.charAt(i);
+                if (ch == '\\' || ch == ',') {
+                    return true;
+                }
+            }
+            return false;
         }
 
         public boolean isListType() {
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+
+/**
+ * A weak pool of canonical instances for immutable attribute values.
+ *
+ * Equal strings, versions and numbers that are interned through the same pool
+ * share a single instance. Values that are no longer referenced elsewhere
+ * are reclaimed by the garbage collector.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class InternPool {
+
+    private final Map<Object, WeakReference<Object>> pool = new WeakHashMap<Object, WeakReference<Object>>();
+
+    /**
+     * Get the canonical instance for the given value.
+     *
+     * @return The canonical instance or null if the value is null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T intern(T value) {
+        if (value == null)
+            return null;
+
+        synchronized (pool) {
+            WeakReference<Object> ref = pool.get(value);
+            Object result = ref != null ? ref.get() : null;
+            if (result == null) {
+                pool.put(value, new WeakReference<Object>(value));
+                result = value;
+            }
+            return (T) result;
+        }
+    }
+
+    /**
+     * Get the canonical instance for an attribute value.
+     *
+     * The elements of a list value are interned individually.
+     */
+    public Object internValue(Object value) {
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> result = new ArrayList<Object>(list.size());
+            for (Object element : list) {
+                result.add(intern(element));
+            }
+            return result;
+        }
+        return intern(value);
+    }
+
+    /**
+     * Get a copy of the given attributes with interned keys and values.
+     */
+    public Map<String, Object> internAttributes(Map<String, Object> atts) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Entry<String, Object> entry : atts.entrySet()) {
+            result.put(intern(entry.getKey()), internValue(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Get a copy of the given directives with interned keys and values.
+     */
+    public Map<String, String> internDirectives(Map<String, String> dirs) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Entry<String, String> entry : dirs.entrySet()) {
+            result.put(intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository;
+
+import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.osgi.resolver.XResource;
+
+/**
+ * The resources that were added to and removed from a {@link RepositoryStorage} between two increments.
+ *
+ * If the storage no longer knows the changes since the requested increment, the changes only
+ * carry a resync marker. The consumer must then read the whole storage again.
+ * Otherwise, the consumer applies the removed resources before the added ones.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class RepositoryChanges {
+
+    private final long fromIncrement;
+    private final long toIncrement;
+    private final List<XResource> added;
+    private final List<XResource> removed;
+    private final boolean resync;
+
+    public RepositoryChanges(long fromIncrement, long toIncrement, List<XResource> added, List<XResource> removed) {
+        if (added == null)
+            throw MESSAGES.illegalArgumentNull("added");
+        if (removed == null)
+            throw MESSAGES.illegalArgumentNull("removed");
+        this.fromIncrement = fromIncrement;
+        this.toIncrement = toIncrement;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.resync = false;
+    }
+
+    private RepositoryChanges(long fromIncrement, long toIncrement) {
+        this.fromIncrement = fromIncrement;
+        this.toIncrement = toIncrement;
+        this.added = Collections.emptyList();
+        this.removed = Collections.emptyList();
+        this.resync = true;
+    }
+
+    /**
+     * Create the changes that tell the consumer to read the whole storage again
+     */
+    public static RepositoryChanges resync(long fromIncrement, long toIncrement) {
+        return new RepositoryChanges(fromIncrement, toIncrement);
+    }
+
+    /**
+     * Get the increment that the changes start after
+     */
+    public long getFromIncrement() {
+        return fromIncrement;
+    }
+
+    /**
+     * Get the increment of the storage that includes the changes
+     */
+    public long getToIncrement() {
+        return toIncrement;
+    }
+
+    /**
+     * Get the resources that were added, in the order they were added
+     */
+    public List<XResource> getAddedResources() {
+        return added;
+    }
+
+    /**
+     * Get the resources that were removed, in the order they were removed
+     */
+    public List<XResource> getRemovedResources() {
+        return removed;
+    }
+
+    /**
+     * True if the changes are not known and the whole storage must be read again
+     */
+    public boolean isResyncRequired() {
+        return resync;
+    }
+
+    public boolean isEmpty() {
+        return !resync && added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        String content = resync ? "resync" : "added=" + added.size() + ",removed=" + removed.size();
+        return "RepositoryChanges[" + fromIncrement + "-" + toIncrement + "," + content + "]";
+    }
+}
@@ -33,6 +33,8 @@ import java.security.NoSuchAlgorithmException;
 public final class RepositoryContentHelper {
 
     public static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
     
     // Hide ctor
     private RepositoryContentHelper() {
@@ -59,9 +61,17 @@ public final class RepositoryContentHelper {
         } finally {
             input.close();
         }
-        StringBuilder builder = new StringBuilder();
-        for (byte b : md.digest()) {
-            builder.append(String.format("%02x", b));
+        return toHexString(md.digest());
+    }
+
+    /**
+     * Get the lower case hex representation of the given digest bytes
+     */
+    public static String toHexString(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(HEX_DIGITS[(b >> 4) & 0x0f]);
+            builder.append(HEX_DIGITS[b & 0x0f]);
         }
         return builder.toString();
     }
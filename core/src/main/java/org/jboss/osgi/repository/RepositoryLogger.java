@@ -23,13 +23,17 @@ import static org.jboss.logging.Logger.Level.ERROR;
 import static org.jboss.logging.Logger.Level.INFO;
 import static org.jboss.logging.Logger.Level.WARN;
 
+import java.io.File;
+
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageLogger;
+import org.jboss.modules.ModuleIdentifier;
 import org.jboss.osgi.resolver.MavenCoordinates;
+import org.jboss.osgi.resolver.XResource;
 
 /**
  * Logging Id ranges: 20400-20499
@@ -54,4 +58,20 @@ public interface RepositoryLogger extends BasicLogger {
     @LogMessage(level = WARN)
     @Message(id = 20402, value = "Cannot infer value type from %s")
     void warnCannotInferValueType(Object value);
+
+    @LogMessage(level = WARN)
+    @Message(id = 20403, value = "Cannot access maven artifact cache index: %s")
+    void warnCannotAccessArtifactCacheIndex(@Cause Throwable th, File indexFile);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 20404, value = "Cannot import resource to storage: %s")
+    void errorCannotImportResource(@Cause Throwable th, XResource res);
+
+    @LogMessage(level = WARN)
+    @Message(id = 20405, value = "Cannot index module: %s")
+    void warnCannotIndexModule(@Cause Throwable th, ModuleIdentifier moduleId);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 20406, value = "Cannot notify storage listener: %s")
+    void errorCannotNotifyStorageListener(@Cause Throwable th, Object listener);
 }
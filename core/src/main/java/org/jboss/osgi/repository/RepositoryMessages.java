@@ -111,4 +111,10 @@ public interface RepositoryMessages {
 
     @Message(id = 20523, value = "Unsupported resource: %s")
     IllegalArgumentException unsupportedResource(XResource res);
+
+    @Message(id = 20524, value = "Illegal value for %s: %d")
+    IllegalArgumentException illegalArgumentValue(String name, int value);
+
+    @Message(id = 20525, value = "Cannot modify read-only storage snapshot at increment: %d")
+    UnsupportedOperationException cannotModifyStorageSnapshot(long increment);
 }
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository;
+
+import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * The answer to a conditional query against a {@link RepositoryStorage}.
+ *
+ * The increment of the result is passed with the next query for the same requirements.
+ * That query is answered as not modified if no capability in the namespaces of the
+ * requirements was added or removed in between.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class RepositoryQueryResult {
+
+    private final long increment;
+    private final Map<Requirement, Collection<Capability>> providers;
+
+    public RepositoryQueryResult(long increment, Map<Requirement, Collection<Capability>> providers) {
+        if (providers == null)
+            throw MESSAGES.illegalArgumentNull("providers");
+        this.increment = increment;
+        this.providers = Collections.unmodifiableMap(providers);
+    }
+
+    private RepositoryQueryResult(long increment) {
+        this.increment = increment;
+        this.providers = null;
+    }
+
+    /**
+     * Create the result for requirements whose providers did not change
+     */
+    public static RepositoryQueryResult notModified(long increment) {
+        return new RepositoryQueryResult(increment);
+    }
+
+    /**
+     * Get the increment to pass with the next query for the same requirements
+     */
+    public long getIncrement() {
+        return increment;
+    }
+
+    /**
+     * True if the providers may have changed since the increment given with the query
+     */
+    public boolean isModified() {
+        return providers != null;
+    }
+
+    /**
+     * Get the providers for each requirement
+     *
+     * @return The providers or null if not modified
+     */
+    public Map<Requirement, Collection<Capability>> getProviders() {
+        return providers;
+    }
+
+    @Override
+    public String toString() {
+        return "RepositoryQueryResult[" + increment + "," + (providers != null ? "modified" : "not modified") + "]";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository;
+
+/**
+ * A listener that is notified of changes to a {@link RepositoryStorage}
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public interface RepositoryStorageListener {
+
+    /**
+     * Called after resources were added to or removed from the storage.
+     * Listeners are called in the order of the changes and must return quickly.
+     *
+     * @param changes The changes since the previous notification
+     */
+    void storageChanged(RepositoryChanges changes);
+}
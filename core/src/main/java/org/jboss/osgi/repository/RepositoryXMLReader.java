@@ -58,12 +58,23 @@ public class RepositoryXMLReader implements RepositoryReader {
 
     private final Map<String, String> attributes = new HashMap<String, String>();
     private final XMLStreamReader reader;
+    private final InternPool internPool;
 
     public static RepositoryReader create(InputStream input) {
-        return new RepositoryXMLReader(input);
+        return new RepositoryXMLReader(input, new InternPool());
     }
 
-    private RepositoryXMLReader(InputStream input) {
+    /**
+     * Create a reader that shares canonical attribute values through the given pool
+     */
+    public static RepositoryReader create(InputStream input, InternPool internPool) {
+        return new RepositoryXMLReader(input, internPool);
+    }
+
+    private RepositoryXMLReader(InputStream input, InternPool internPool) {
+        if (internPool == null)
+            throw MESSAGES.illegalArgumentNull("internPool");
+        this.internPool = internPool;
         try {
             reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
         } catch (Exception ex) {
@@ -116,8 +127,8 @@ public class RepositoryXMLReader implements RepositoryReader {
         XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
         for (int i = 0; i < reader.getAttributeCount(); i++) {
             // [TODO] add support for namespaced attributes
-            String key = reader.getAttributeLocalName(i);
-            String value = reader.getAttributeValue(i);
+            String key = internPool.intern(reader.getAttributeLocalName(i));
+            String value = internPool.intern(reader.getAttributeValue(i));
             builder.addAttribute(key, value);
         }
         while (reader.hasNext() && reader.nextTag() != END_ELEMENT) {
@@ -164,7 +175,7 @@ public class RepositoryXMLReader implements RepositoryReader {
     }
 
     private void readCapabilityElement(XMLStreamReader reader, XResourceBuilder<XResource> builder) throws XMLStreamException {
-        String namespace = reader.getAttributeValue(null, Attribute.NAMESPACE.toString());
+        String namespace = internPool.intern(reader.getAttributeValue(null, Attribute.NAMESPACE.toString()));
         Map<String, Object> atts = new HashMap<String, Object>();
         Map<String, String> dirs = new HashMap<String, String>();
         readAttributesAndDirectives(reader, atts, dirs);
@@ -176,7 +187,7 @@ public class RepositoryXMLReader implements RepositoryReader {
     }
 
     private void readRequirementElement(XMLStreamReader reader, XResourceBuilder<XResource> builder) throws XMLStreamException {
-        String namespace = reader.getAttributeValue(null, Attribute.NAMESPACE.toString());
+        String namespace = internPool.intern(reader.getAttributeValue(null, Attribute.NAMESPACE.toString()));
         Map<String, Object> atts = new HashMap<String, Object>();
         Map<String, String> dirs = new HashMap<String, String>();
         readAttributesAndDirectives(reader, atts, dirs);
@@ -204,17 +215,17 @@ public class RepositoryXMLReader implements RepositoryReader {
     }
 
     private void readAttributeElement(XMLStreamReader reader, Map<String, Object> attributes) throws XMLStreamException {
-        String name = reader.getAttributeValue(null, Attribute.NAME.toString());
+        String name = internPool.intern(reader.getAttributeValue(null, Attribute.NAME.toString()));
         String valstr = reader.getAttributeValue(null, Attribute.VALUE.toString());
         String typespec = reader.getAttributeValue(null, Attribute.TYPE.toString());
         AttributeValue value = AttributeValueHandler.readAttributeValue(typespec, valstr);
-        attributes.put(name, value.getValue());
+        attributes.put(name, internPool.internValue(value.getValue()));
         while (reader.hasNext() && reader.nextTag() != END_ELEMENT);
     }
 
     private void readDirectiveElement(XMLStreamReader reader, Map<String, String> directives) throws XMLStreamException {
-        String name = reader.getAttributeValue(null, Attribute.NAME.toString());
-        String value = reader.getAttributeValue(null, Attribute.VALUE.toString());
+        String name = internPool.intern(reader.getAttributeValue(null, Attribute.NAME.toString()));
+        String value = internPool.intern(reader.getAttributeValue(null, Attribute.VALUE.toString()));
         directives.put(name, value);
         while (reader.hasNext() && reader.nextTag() != END_ELEMENT) {
         }
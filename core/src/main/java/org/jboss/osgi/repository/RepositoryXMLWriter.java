@@ -33,6 +33,7 @@ import static org.jboss.osgi.repository.Namespace100.Element.RESOURCE;
 import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
 
 import java.io.OutputStream;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import javax.xml.stream.XMLOutputFactory;
@@ -53,7 +54,15 @@ import org.osgi.resource.Requirement;
  */
 public class RepositoryXMLWriter implements RepositoryWriter {
 
+    private static final Map<Type, String> LIST_TYPESPECS = new EnumMap<Type, String>(Type.class);
+    static {
+        for (Type type : Type.values()) {
+            LIST_TYPESPECS.put(type, "List<" + type + ">");
+        }
+    }
+
     private final XMLStreamWriter writer;
+    private final StringBuilder valueBuffer = new StringBuilder();
 
     public static RepositoryWriter create(OutputStream output) {
         return new RepositoryXMLWriter(output);
@@ -127,19 +136,25 @@ public class RepositoryXMLWriter implements RepositoryWriter {
             AttributeValue attval = AttributeValue.create(entry.getValue());
             writer.writeStartElement(ATTRIBUTE.getLocalName());
             writer.writeAttribute(NAME.getLocalName(), entry.getKey());
+            writer.writeAttribute(VALUE.getLocalName(), getValueString(attval));
             if (attval.isListType()) {
-                writer.writeAttribute(VALUE.getLocalName(), attval.getValueString());
-                writer.writeAttribute(TYPE.getLocalName(), "List<" + attval.getType() + ">");
-            } else {
-                writer.writeAttribute(VALUE.getLocalName(), attval.getValueString());
-                if (attval.getType() != Type.String) {
-                    writer.writeAttribute(TYPE.getLocalName(), attval.getType().toString());
-                }
+                writer.writeAttribute(TYPE.getLocalName(), LIST_TYPESPECS.get(attval.getType()));
+            } else if (attval.getType() != Type.String) {
+                writer.writeAttribute(TYPE.getLocalName(), attval.getType().toString());
             }
             writer.writeEndElement();
         }
     }
 
+    private String getValueString(AttributeValue attval) {
+        if (!attval.isListType()) {
+            return attval.getValueString();
+        }
+        valueBuffer.setLength(0);
+        attval.appendValueString(valueBuffer);
+        return valueBuffer.toString();
+    }
+
     private void writeDirectives(Map<String, String> directives) throws XMLStreamException {
         for (Entry<String, String> entry : directives.entrySet()) {
             writer.writeStartElement(DIRECTIVE.getLocalName());
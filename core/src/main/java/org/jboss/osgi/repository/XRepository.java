@@ -37,6 +37,49 @@ public interface XRepository extends Repository {
      * The property that defines the Maven Repository base URLs.
      */
     String PROPERTY_MAVEN_REPOSITORY_BASE_URLS = "org.jboss.osgi.repository.maven.base.urls";
+    /**
+     * The property that defines the Maven Repository connect timeout in milliseconds.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_CONNECT_TIMEOUT = "org.jboss.osgi.repository.maven.connect.timeout";
+    /**
+     * The property that defines the Maven Repository read timeout in milliseconds.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_READ_TIMEOUT = "org.jboss.osgi.repository.maven.read.timeout";
+    /**
+     * The property that defines the directory of the local Maven artifact cache.
+     * The cache is only used if this property is set. The directory must not be below the repository storage dir,
+     * because the storage takes over content from below its dir without copying it.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_CACHE_DIR = "org.jboss.osgi.repository.maven.cache.dir";
+    /**
+     * The property that defines the maximum size of the local Maven artifact cache in bytes.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_CACHE_SIZE = "org.jboss.osgi.repository.maven.cache.size";
+    /**
+     * The property that defines for how many milliseconds a Maven artifact that could not be found is not looked up again
+     * in remote repositories. Local file repositories are checked on every lookup.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_NEGATIVE_CACHE_TTL = "org.jboss.osgi.repository.maven.negative.cache.ttl";
+    /**
+     * The property that defines the maximum number of entries in the Maven negative lookup cache.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_NEGATIVE_CACHE_SIZE = "org.jboss.osgi.repository.maven.negative.cache.size";
+    /**
+     * The property that defines the number of consecutive failures after which a Maven Repository mirror is skipped.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_MIRROR_FAILURE_THRESHOLD = "org.jboss.osgi.repository.maven.mirror.failure.threshold";
+    /**
+     * The property that defines for how many milliseconds a failing Maven Repository mirror is skipped.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_MIRROR_COOLDOWN = "org.jboss.osgi.repository.maven.mirror.cooldown";
+    /**
+     * The property that defines for how many milliseconds Maven metadata used for version ranges is cached before it is revalidated.
+     */
+    String PROPERTY_MAVEN_REPOSITORY_METADATA_TTL = "org.jboss.osgi.repository.maven.metadata.ttl";
+    /**
+     * The property that enables asynchronous import of delegate results into the repository storage.
+     */
+    String PROPERTY_REPOSITORY_WRITE_BEHIND_IMPORT = "org.jboss.osgi.repository.write.behind.import";
     /**
      * The property that defines the repository storage directory.
      */
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * A {@link RepositoryStorage} that supports batch updates, snapshots, change tracking and conditional queries.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public interface XRepositoryStorage extends RepositoryStorage {
+
+    /**
+     * Find the capabilities that match the specified requirements, unless they did not change.
+     *
+     * @param requirements The requirements for which matching capabilities should be returned. Must not be {@code null}.
+     * @param increment The increment of the previous result for the same requirements, or -1 for an unconditional query
+     * @return A result that is not modified if no capability in the namespaces of the requirements
+     *         was added or removed after the given increment
+     */
+    RepositoryQueryResult findProviders(Collection<? extends Requirement> requirements, long increment);
+
+    /**
+     * Iterate over the capabilities that match the specified requirement.
+     * Matches are found as the iterator advances, so a caller that stops early
+     * does not pay for the remaining matches.
+     *
+     * @param requirement The requirement for which matching capabilities should be returned. Must not be {@code null}.
+     * @param offset The number of matches to skip
+     * @param limit The maximum number of matches to return, or -1 for all
+     * @return An iterator over the matching capabilities that does not support removal
+     */
+    Iterator<Capability> iterateProviders(Requirement requirement, int offset, int limit);
+
+    /**
+     * Get the increment at which a capability in the given namespace was last added or removed
+     */
+    long getNamespaceIncrement(String namespace);
+
+    /**
+     * Add the given resources to storage in one operation.
+     * The added resources share one increment and are reported to listeners as one change.
+     * Resources for which storage already contains a resource with the same identity are skipped.
+     *
+     * @param resources The resources to add
+     * @return The resources being added, which may be modified copies of the given resources
+     * @throws RepositoryStorageException If there is a problem storing the resources
+     */
+    Collection<XResource> addResources(Collection<? extends XResource> resources) throws RepositoryStorageException;
+
+    /**
+     * Get a read-only view of this storage as of its current increment.
+     * The view does not change when resources are added to or removed from this storage later.
+     *
+     * @return The snapshot, which throws {@link UnsupportedOperationException} on modification
+     */
+    XRepositoryStorage snapshot();
+
+    /**
+     * Get the resources that were added and removed after the given increment.
+     *
+     * @param increment The increment of the last change the caller knows about
+     * @return The changes, which require a full resync if the storage no longer knows them
+     */
+    RepositoryChanges getChangesSince(long increment);
+
+    /**
+     * Add a listener that is notified of every change to this storage
+     */
+    void addStorageListener(RepositoryStorageListener listener);
+
+    /**
+     * Remove a listener that was added before
+     */
+    void removeStorageListener(RepositoryStorageListener listener);
+}
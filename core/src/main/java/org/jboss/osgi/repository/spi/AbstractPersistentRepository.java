@@ -23,16 +23,38 @@ import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
 import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.RepositoryStorageFactory;
 import org.jboss.osgi.repository.XPersistentRepository;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.XRepositoryStorage;
 import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.spi.AbstractRequirement;
+import org.osgi.framework.Filter;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 
@@ -45,7 +67,14 @@ import org.osgi.resource.Requirement;
 public class AbstractPersistentRepository extends AbstractRepository implements XPersistentRepository {
 
     private final RepositoryStorage storage;
-    private final List<XRepository> delegates = new ArrayList<XRepository>();
+    private final List<XRepository> delegates = new CopyOnWriteArrayList<XRepository>();
+    private final ConcurrentMap<List<Object>, XResource> pendingImports = new ConcurrentHashMap<List<Object>, XResource>();
+    private volatile ThreadPoolExecutor importExecutor;
+    private volatile RoutingTable routingTable = new RoutingTable(Collections.<XRepository> emptyList());
+    private final ConcurrentMap<RequirementKey, FutureTask<List<Capability>>> pendingLookups = new ConcurrentHashMap<RequirementKey, FutureTask<List<Capability>>>();
+
+    /** The default capacity of the write-behind import queue */
+    public static final int DEFAULT_IMPORT_QUEUE_SIZE = 100;
 
     public AbstractPersistentRepository(RepositoryStorageFactory factory) {
         if (factory == null)
@@ -78,6 +107,7 @@ public class AbstractPersistentRepository extends AbstractRepository implements
             if (delegate != this) {
                 LOGGER.debugf("Add repository: %s", delegate);
                 delegates.add(delegate);
+                routingTable = new RoutingTable(delegates);
             }
         }
     }
@@ -87,14 +117,63 @@ public class AbstractPersistentRepository extends AbstractRepository implements
             if (delegate != this) {
                 LOGGER.debugf("Remove repository: %s", delegate);
                 delegates.remove(delegate);
+                routingTable = new RoutingTable(delegates);
             }
         }
     }
 
     public List<XRepository> getRepositoryDelegates() {
-        synchronized (delegates) {
-            return Collections.unmodifiableList(delegates);
+        return Collections.unmodifiableList(delegates);
+    }
+
+    /**
+     * Enable or disable write-behind import of delegate results.
+     *
+     * When enabled, capabilities found by a delegate are returned immediately and the
+     * resource is added to the storage by a background thread. If the bounded import
+     * queue is full, the import runs on the calling thread.
+     */
+    public void setWriteBehindImport(boolean enabled) {
+        synchronized (pendingImports) {
+            ThreadPoolExecutor executor = importExecutor;
+            if (enabled && executor == null) {
+                executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_IMPORT_QUEUE_SIZE), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable run) {
+                        Thread thread = new Thread(run, "RepositoryImport-" + getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+                executor.allowCoreThreadTimeOut(true);
+                importExecutor = executor;
+            } else if (!enabled && executor != null) {
+                importExecutor = null;
+                executor.shutdown();
+            }
+        }
+    }
+
+    public boolean isWriteBehindImport() {
+        return importExecutor != null;
+    }
+
+    /**
+     * Wait until all pending write-behind imports are in the storage
+     *
+     * @return true if there are no more pending imports
+     */
+    public boolean awaitPendingImports(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (pendingImports) {
+            while (!pendingImports.isEmpty()) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (millis <= 0)
+                    return false;
+                pendingImports.wait(millis);
+            }
         }
+        return true;
     }
 
     @Override
@@ -108,25 +187,354 @@ public class AbstractPersistentRepository extends AbstractRepository implements
 
         // Try to find the providers in the delegates
         if (providers.isEmpty()) {
-            for (XRepository delegate : delegates) {
-                Collection<Capability> caps = delegate.findProviders(req);
-                if (!caps.isEmpty()) {
-                    // Add the delegate resources to the storage
-                    for (Capability cap : caps) {
-                        XResource res = (XResource) cap.getResource();
-                        XIdentityCapability icap = res.getIdentityCapability();
-                        XResource storageResource = storage.getResource(icap);
-                        if (storageResource == null) {
-                            storageResource = storage.addResource(res);
-                        }
-                        providers.add(storageResource.getIdentityCapability());
+            providers.addAll(findDelegateProviders(req));
+        }
+
+        return Collections.unmodifiableList(providers);
+    }
+
+    /**
+     * Iterate over the capabilities that match the given requirement.
+     *
+     * Matches in storage are streamed from its index. As with {@link #findProviders(Requirement)},
+     * the delegates are only asked if storage has no match.
+     *
+     * The order of the matches may change when storage is modified. Callers that page
+     * through the matches with several calls should iterate a {@link XRepositoryStorage#snapshot()}.
+     *
+     * @param offset The number of matches to skip
+     * @param limit The maximum number of matches to return, or -1 for all
+     */
+    public Iterator<Capability> iterateProviders(Requirement req, int offset, int limit) {
+        if (req == null)
+            throw MESSAGES.illegalArgumentNull("req");
+        if (offset < 0)
+            throw MESSAGES.illegalArgumentValue("offset", offset);
+        if (limit < -1)
+            throw MESSAGES.illegalArgumentValue("limit", limit);
+
+        if (storage instanceof XRepositoryStorage) {
+            Iterator<Capability> iterator = ((XRepositoryStorage) storage).iterateProviders(req, 0, -1);
+            if (iterator.hasNext()) {
+                return new PageIterator(iterator, offset, limit);
+            }
+        }
+        List<Capability> providers = new ArrayList<Capability>(storage.findProviders(req));
+        if (providers.isEmpty()) {
+            providers = findDelegateProviders(req);
+        }
+        int fromIndex = Math.min(offset, providers.size());
+        int toIndex = limit < 0 ? providers.size() : Math.min(providers.size(), fromIndex + limit);
+        return Collections.unmodifiableList(providers.subList(fromIndex, toIndex)).iterator();
+    }
+
+    @Override
+    protected Collection<Capability> findLocalProviders(Requirement req) {
+        Collection<Capability> providers = storage.findProviders(req);
+        if (providers.isEmpty())
+            return null;
+        List<Capability> result = new ArrayList<Capability>(providers);
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    protected Collection<Capability> findRemoteProviders(Requirement req) {
+        List<Capability> result = findDelegateProviders(req);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Find the providers in the delegates.
+     *
+     * Concurrent lookups for an equal requirement share a single delegate lookup and storage import.
+     */
+    private List<Capability> findDelegateProviders(final Requirement req) {
+        final List<XRepository> routed = getCandidateDelegates(req);
+        if (routed.isEmpty())
+            return Collections.emptyList();
+
+        // Resources that are on their way into the storage need not be fetched again
+        if (!pendingImports.isEmpty()) {
+            List<Capability> pending = findPendingProviders(req);
+            if (!pending.isEmpty())
+                return pending;
+        }
+
+        RequirementKey key = new RequirementKey(req);
+        FutureTask<List<Capability>> task = new FutureTask<List<Capability>>(new Callable<List<Capability>>() {
+            @Override
+            public List<Capability> call() throws Exception {
+                return findDelegateProvidersInternal(req, routed);
+            }
+        });
+        FutureTask<List<Capability>> pending = pendingLookups.putIfAbsent(key, task);
+        if (pending == null) {
+            try {
+                task.run();
+            } finally {
+                pendingLookups.remove(key, task);
+            }
+            pending = task;
+        } else {
+            LOGGER.debugf("Wait for pending lookup: %s", req);
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Get the delegates that serve the namespace of the given requirement,
+     * without those whose namespace value filter excludes the requested value
+     */
+    private List<XRepository> getCandidateDelegates(Requirement req) {
+        String namespace = req.getNamespace();
+        List<XRepository> routed = routingTable.getDelegates(namespace);
+        String nsvalue = getNamespaceValue(req);
+        if (nsvalue == null || routed.isEmpty())
+            return routed;
+
+        List<XRepository> result = null;
+        for (int i = 0; i < routed.size(); i++) {
+            XRepository delegate = routed.get(i);
+            BloomFilter filter = delegate instanceof AbstractRepository ? ((AbstractRepository) delegate).getNamespaceValueFilter(namespace) : null;
+            if (filter != null && !filter.mightContain(nsvalue)) {
+                LOGGER.tracef("Skip delegate %s for: %s", delegate, req);
+                if (result == null) {
+                    result = new ArrayList<XRepository>(routed.subList(0, i));
+                }
+            } else if (result != null) {
+                result.add(delegate);
+            }
+        }
+        return result != null ? result : routed;
+    }
+
+    /**
+     * The filter of the storage is only complete if no delegate serves the namespace
+     */
+    @Override
+    public BloomFilter getNamespaceValueFilter(String namespace) {
+        if (routingTable.getDelegates(namespace).isEmpty()) {
+            if (storage instanceof MemoryRepositoryStorage) {
+                return ((MemoryRepositoryStorage) storage).getNamespaceValueFilter(namespace);
+            }
+        }
+        return null;
+    }
+
+    private List<Capability> findDelegateProvidersInternal(Requirement req, List<XRepository> routed) {
+        List<Capability> providers = new ArrayList<Capability>();
+        for (XRepository delegate : routed) {
+            Collection<Capability> caps = delegate.findProviders(req);
+            if (!caps.isEmpty()) {
+                // Add the delegate resources to the storage
+                for (Capability cap : caps) {
+                    XResource res = (XResource) cap.getResource();
+                    providers.add(importResource(res).getIdentityCapability());
+                }
+                break;
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Add the given delegate resource to the storage, either now or with the import executor
+     *
+     * @return The storage resource or the given resource if the import is pending
+     */
+    private XResource importResource(final XResource res) {
+        ThreadPoolExecutor executor = importExecutor;
+        if (executor == null)
+            return getOrAddStorageResource(res);
+
+        XIdentityCapability icap = res.getIdentityCapability();
+        final List<Object> key = Arrays.<Object> asList(icap.getNamespace(), icap.getAttributes());
+        XResource pending = pendingImports.putIfAbsent(key, res);
+        if (pending != null)
+            return pending;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getOrAddStorageResource(res);
+                    } catch (RuntimeException ex) {
+                        LOGGER.errorCannotImportResource(ex, res);
+                    } finally {
+                        importFinished(key, res);
                     }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Write-behind was disabled concurrently
+            importFinished(key, res);
+            return getOrAddStorageResource(res);
+        }
+        return res;
+    }
+
+    // Wake up the threads that wait for the pending imports
+    private void importFinished(List<Object> key, XResource res) {
+        synchronized (pendingImports) {
+            pendingImports.remove(key, res);
+            if (pendingImports.isEmpty()) {
+                pendingImports.notifyAll();
+            }
+        }
+    }
+
+    private List<Capability> findPendingProviders(Requirement req) {
+        List<Capability> result = new ArrayList<Capability>();
+        for (XResource res : pendingImports.values()) {
+            for (Capability cap : res.getCapabilities(req.getNamespace())) {
+                if (matches(req, cap)) {
+                    result.add(res.getIdentityCapability());
                     break;
                 }
             }
         }
+        return result;
+    }
 
-        return Collections.unmodifiableList(providers);
+    private static boolean matches(Requirement req, Capability cap) {
+        if (req instanceof XRequirement)
+            return ((XRequirement) req).matches(cap);
+        Filter filter = AbstractRequirement.getFilterFromDirective(req);
+        return filter == null || filter.match(new Hashtable<String, Object>(cap.getAttributes()));
+    }
+
+    private XResource getOrAddStorageResource(XResource res) {
+        XIdentityCapability icap = res.getIdentityCapability();
+        synchronized (storage) {
+            XResource storageResource = storage.getResource(icap);
+            if (storageResource == null) {
+                storageResource = storage.addResource(res);
+            }
+            return storageResource;
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * Skips and limits the matches of another iterator
+     */
+    private static final class PageIterator implements Iterator<Capability> {
+        private final Iterator<Capability> iterator;
+        private int remaining;
+
+        PageIterator(Iterator<Capability> iterator, int offset, int limit) {
+            this.iterator = iterator;
+            this.remaining = limit;
+            for (int i = 0; i < offset && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining != 0 && iterator.hasNext();
+        }
+
+        @Override
+        public Capability next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (remaining > 0) {
+                remaining--;
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An immutable map from namespace to the delegates that serve it, in delegate order.
+     * Namespaces that no delegate declares go to the delegates that serve all namespaces.
+     * Delegates that do not extend {@link AbstractRepository} serve all namespaces.
+     */
+    private static final class RoutingTable {
+        private final Map<String, List<XRepository>> routes = new HashMap<String, List<XRepository>>();
+        private final List<XRepository> defaultRoute = new ArrayList<XRepository>();
+
+        RoutingTable(List<XRepository> delegates) {
+            Map<XRepository, Collection<String>> supported = new IdentityHashMap<XRepository, Collection<String>>();
+            for (XRepository delegate : delegates) {
+                Collection<String> namespaces = null;
+                if (delegate instanceof AbstractRepository) {
+                    namespaces = ((AbstractRepository) delegate).getSupportedNamespaces();
+                }
+                supported.put(delegate, namespaces);
+                if (namespaces == null) {
+                    defaultRoute.add(delegate);
+                } else {
+                    for (String namespace : namespaces) {
+                        routes.put(namespace, new ArrayList<XRepository>());
+                    }
+                }
+            }
+            for (XRepository delegate : delegates) {
+                Collection<String> namespaces = supported.get(delegate);
+                for (Map.Entry<String, List<XRepository>> entry : routes.entrySet()) {
+                    if (namespaces == null || namespaces.contains(entry.getKey())) {
+                        entry.getValue().add(delegate);
+                    }
+                }
+            }
+        }
+
+        List<XRepository> getDelegates(String namespace) {
+            List<XRepository> result = routes.get(namespace);
+            return result != null ? result : defaultRoute;
+        }
+    }
+
+    /**
+     * Requirements are compared by namespace, attributes and directives
+     */
+    private static final class RequirementKey {
+        private final String namespace;
+        private final Map<String, Object> attributes;
+        private final Map<String, String> directives;
+
+        RequirementKey(Requirement req) {
+            namespace = req.getNamespace();
+            attributes = req.getAttributes();
+            directives = req.getDirectives();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = namespace.hashCode();
+            result = prime * result + attributes.hashCode();
+            result = prime * result + directives.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof RequirementKey))
+                return false;
+            RequirementKey other = (RequirementKey) obj;
+            return namespace.equals(other.namespace) && attributes.equals(other.attributes) && directives.equals(other.directives);
+        }
+    }
+}
@@ -22,27 +22,46 @@ package org.jboss.osgi.repository.spi;
 import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
 import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipFile;
 
 import org.jboss.osgi.metadata.OSGiManifestBuilder;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.metadata.OSGiMetaDataBuilder;
 import org.jboss.osgi.repository.URLResourceBuilderFactory;
+import org.jboss.osgi.repository.XContentCapability;
 import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XResource;
 import org.jboss.osgi.resolver.XResourceBuilder;
 import org.jboss.osgi.resolver.XResourceBuilderFactory;
 import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
 import org.osgi.resource.Requirement;
 import org.osgi.service.repository.ContentNamespace;
 import org.osgi.service.repository.RepositoryContent;
@@ -55,11 +74,90 @@ import org.osgi.service.repository.RepositoryContent;
  */
 public abstract class AbstractRepository implements XRepository {
 
+    /** The maximum number of cached {@link OSGiMetaData} instances */
+    public static final int METADATA_CACHE_SIZE = 256;
+
+    /** The default maximum number of concurrent lookups in a batch */
+    public static final int DEFAULT_BATCH_CONCURRENCY = 8;
+
+    private volatile Executor asyncExecutor;
+    private volatile int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+    private final Map<String, OSGiMetaData> metadataCache = new LinkedHashMap<String, OSGiMetaData>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OSGiMetaData> eldest) {
+            return size() > METADATA_CACHE_SIZE;
+        }
+    };
+
     @Override
     public String getName() {
         return getClass().getSimpleName();
     }
 
+    /**
+     * Get the namespaces for which this repository can provide capabilities.
+     * Serves all namespaces by default.
+     *
+     * @return The supported namespaces or null if this repository may serve any namespace
+     */
+    public Collection<String> getSupportedNamespaces() {
+        return null;
+    }
+
+    /**
+     * Get a filter of the values in the given namespace that this repository can serve.
+     * A lookup whose namespace value is not contained in the filter cannot succeed.
+     *
+     * @return The filter or null if any value may be served
+     */
+    public BloomFilter getNamespaceValueFilter(String namespace) {
+        return null;
+    }
+
+    /**
+     * Get the single namespace value that a matching capability must have
+     *
+     * @return The value or null if the requirement may match more than one value
+     */
+    static String getNamespaceValue(Requirement req) {
+        Object value = req.getAttributes().get(req.getNamespace());
+        if (value instanceof String)
+            return (String) value;
+        return getFilterNamespaceValue(req);
+    }
+
+    /**
+     * Get the single namespace value that the filter of the requirement admits.
+     * Every capability that matches the filter has this value, so a lookup may
+     * only visit the capabilities with this value and still match on the filter.
+     *
+     * @return The value or null if the filter may match more than one value,
+     *         or if the requirement has a namespace attribute with another value
+     */
+    static String getFilterNamespaceValue(Requirement req) {
+        String namespace = req.getNamespace();
+        // Only trust filters that can match a single plain value
+        String filter = req.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+        if (filter == null || filter.indexOf('|') >= 0 || filter.indexOf('!') >= 0)
+            return null;
+        String prefix = "(" + namespace + "=";
+        int start = filter.indexOf(prefix);
+        if (start < 0 || filter.indexOf(prefix, start + 1) >= 0)
+            return null;
+        start += prefix.length();
+        int end = filter.indexOf(')', start);
+        if (end < 0)
+            return null;
+        String result = filter.substring(start, end);
+        if (result.indexOf('*') >= 0 || result.indexOf('\\') >= 0 || result.indexOf('(') >= 0)
+            return null;
+        Object value = req.getAttributes().get(namespace);
+        if (value != null && !result.equals(value))
+            return null;
+        return result;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public <T> T adapt(Class<T> type) {
@@ -70,35 +168,242 @@ public abstract class AbstractRepository implements XRepository {
         return result;
     }
 
+    /**
+     * Find the providers for all given requirements.
+     *
+     * Requirements that can be answered locally are answered in a single pass.
+     * The remaining lookups run in parallel with at most {@link #getBatchConcurrency()}
+     * concurrent lookups. The result map preserves the order of the given requirements.
+     */
     @Override
     public Map<Requirement, Collection<Capability>> findProviders(Collection<? extends Requirement> reqs) {
         if (reqs == null)
             throw MESSAGES.illegalArgumentNull("reqs");
-        Map<Requirement, Collection<Capability>> result = new HashMap<Requirement, Collection<Capability>>();
+        Map<Requirement, Collection<Capability>> result = new LinkedHashMap<Requirement, Collection<Capability>>();
+        List<Requirement> misses = new ArrayList<Requirement>();
         for (Requirement req : reqs) {
-            Collection<Capability> providers = findProviders(req);
+            Collection<Capability> providers = findLocalProviders(req);
             result.put(req, providers);
+            if (providers == null) {
+                misses.add(req);
+            }
+        }
+        if (misses.size() == 1) {
+            Requirement req = misses.get(0);
+            result.put(req, findRemoteProviders(req));
+        } else if (misses.size() > 1) {
+            AtomicReferenceArray<Collection<Capability>> found = findRemoteProviders(misses);
+            for (int i = 0; i < misses.size(); i++) {
+                Collection<Capability> providers = found.get(i);
+                result.put(misses.get(i), providers != null ? providers : Collections.<Capability> emptyList());
+            }
         }
         return result;
     }
 
+    /**
+     * Find the providers that are available without remote or blocking I/O.
+     * @return The providers or null if the requirement needs a full lookup
+     */
+    protected Collection<Capability> findLocalProviders(Requirement req) {
+        return null;
+    }
+
+    /**
+     * Find the providers for a requirement that could not be answered locally
+     */
+    protected Collection<Capability> findRemoteProviders(Requirement req) {
+        return findProviders(req);
+    }
+
+    private AtomicReferenceArray<Collection<Capability>> findRemoteProviders(final List<Requirement> misses) {
+        final AtomicReferenceArray<Collection<Capability>> found = new AtomicReferenceArray<Collection<Capability>>(misses.size());
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < misses.size()) {
+                    found.set(index, findRemoteProviders(misses.get(index)));
+                }
+            }
+        };
+
+        // The calling thread is one of the workers
+        int workers = Math.min(getBatchConcurrency(), misses.size()) - 1;
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(submitAsync(Executors.callable(worker)));
+        }
+        worker.run();
+
+        // Workers that did not start yet have nothing left to do
+        for (Future<Object> future : futures) {
+            future.cancel(false);
+        }
+        try {
+            for (Future<Object> future : futures) {
+                if (!future.isCancelled()) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return found;
+    }
+
+    /**
+     * Set the maximum number of concurrent lookups in a batch
+     */
+    public void setBatchConcurrency(int batchConcurrency) {
+        if (batchConcurrency < 1)
+            throw MESSAGES.illegalArgumentValue("batchConcurrency", batchConcurrency);
+        this.batchConcurrency = batchConcurrency;
+    }
+
+    public int getBatchConcurrency() {
+        return batchConcurrency;
+    }
+
     @Override
     public abstract Collection<Capability> findProviders(Requirement req);
 
+    /**
+     * Find the capabilities that match the specified requirement without blocking the caller.
+     *
+     * Providers that are available locally complete the future immediately.
+     * Other lookups run with the async executor.
+     *
+     * @param req The requirement for which matching capabilities should be returned. Must not be {@code null}.
+     * @return A future for the collection of matching capabilities.
+     */
+    public Future<Collection<Capability>> findProvidersAsync(final Requirement req) {
+        if (req == null)
+            throw MESSAGES.illegalArgumentNull("req");
+        Collection<Capability> providers = findLocalProviders(req);
+        if (providers != null) {
+            return completedFuture(providers);
+        }
+        return submitAsync(new Callable<Collection<Capability>>() {
+            @Override
+            public Collection<Capability> call() throws Exception {
+                return findRemoteProviders(req);
+            }
+        });
+    }
+
+    /**
+     * Find the capabilities that match the specified requirements without blocking the caller.
+     *
+     * @param reqs The requirements for which matching capabilities should be returned. Must not be {@code null}.
+     * @return A future for the map of requirements to matching capabilities.
+     */
+    public Future<Map<Requirement, Collection<Capability>>> findProvidersAsync(final Collection<? extends Requirement> reqs) {
+        if (reqs == null)
+            throw MESSAGES.illegalArgumentNull("reqs");
+        return submitAsync(new Callable<Map<Requirement, Collection<Capability>>>() {
+            @Override
+            public Map<Requirement, Collection<Capability>> call() throws Exception {
+                return findProviders(reqs);
+            }
+        });
+    }
+
+    /**
+     * Set the executor that runs asynchronous lookups.
+     * If no executor is set, a shared pool of daemon threads is used.
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor != null ? executor : DefaultAsyncExecutor.INSTANCE;
+    }
+
+    /**
+     * Run the given task with the async executor
+     */
+    protected <T> Future<T> submitAsync(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        getAsyncExecutor().execute(task);
+        return task;
+    }
+
+    /**
+     * Get a future that is already completed with the given value
+     */
+    protected static <T> Future<T> completedFuture(final T value) {
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return value;
+            }
+        });
+        task.run();
+        return task;
+    }
+
     /**
      * Convert the given resource into the target resource type.
      * @return The target resource
      */
     protected XResource getTargetResource(XResource resource) throws Exception {
-        OSGiMetaData metadata = getOSGiMetaData(resource);
+        OSGiMetaData metadata = null;
+        String cacheKey = getMetaDataCacheKey(resource);
+        if (cacheKey != null) {
+            synchronized (metadataCache) {
+                metadata = metadataCache.get(cacheKey);
+            }
+        }
         if (metadata == null) {
-            throw MESSAGES.cannotObtainResourceMetadata(resource);
+            metadata = getOSGiMetaData(resource);
+            if (metadata == null) {
+                throw MESSAGES.cannotObtainResourceMetadata(resource);
+            }
+            if (cacheKey != null) {
+                synchronized (metadataCache) {
+                    metadataCache.put(cacheKey, metadata);
+                }
+            }
         }
         XResourceBuilder<XResource> builder = getResourceBuilder(resource);
         builder.loadFrom(metadata);
         return builder.getResource();
     }
 
+    /**
+     * Get the key under which the metadata for the given resource is cached.
+     *
+     * This is the content digest if known, otherwise the path, last modified time
+     * and size of a local content file.
+     * @return The cache key or null if the metadata should not be cached
+     */
+    protected String getMetaDataCacheKey(XResource resource) {
+        List<Capability> caps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
+        if (caps.isEmpty())
+            return null;
+        XCapability ccap = (XCapability) caps.get(0);
+        Object digest = ccap.getAttribute(ContentNamespace.CONTENT_NAMESPACE);
+        if (digest instanceof String && !XContentCapability.DEFAULT_DIGEST.equals(digest)) {
+            return (String) digest;
+        }
+        File contentFile = getContentFile(resource);
+        if (contentFile != null) {
+            return contentFile.getAbsolutePath() + "|" + contentFile.lastModified() + "|" + contentFile.length();
+        }
+        return null;
+    }
+
     protected XResourceBuilder<XResource> getResourceBuilder(XResource resource) {
         XResourceBuilder<XResource> builder;
         List<Capability> caps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
@@ -127,8 +432,20 @@ public abstract class AbstractRepository implements XRepository {
 
     protected Manifest getResourceManifest(XResource resource) throws IOException {
         Manifest manifest = null;
-        if (resource instanceof RepositoryContent) {
-            InputStream content = ((RepositoryContent) resource).getContent();;
+        File contentFile = getContentFile(resource);
+        if (contentFile != null) {
+            // Read the manifest entry through the zip central directory
+            JarFile jarFile = null;
+            try {
+                jarFile = new JarFile(contentFile, false);
+                manifest = jarFile.getManifest();
+            } catch (IOException ex) {
+                LOGGER.debugf("Cannot access manifest from: %s", resource);
+            } finally {
+                safeClose(jarFile);
+            }
+        } else if (resource instanceof RepositoryContent) {
+            InputStream content = ((RepositoryContent) resource).getContent();
             try {
                 manifest = new JarInputStream(content).getManifest();
             } catch (IOException ex) {
@@ -140,6 +457,55 @@ public abstract class AbstractRepository implements XRepository {
         return manifest;
     }
 
+    /**
+     * Get the local file for the content of the given resource.
+     * @return The content file or null if the content is not a local file
+     */
+    protected File getContentFile(XResource resource) {
+        List<Capability> caps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
+        if (caps.isEmpty())
+            return null;
+        XCapability ccap = (XCapability) caps.get(0);
+        Object urlspec = ccap.getAttribute(ContentNamespace.CAPABILITY_URL_ATTRIBUTE);
+        if (!(urlspec instanceof String) || !((String) urlspec).startsWith("file:"))
+            return null;
+        File file;
+        try {
+            file = new File(new URI((String) urlspec));
+        } catch (URISyntaxException ex) {
+            file = new File(toContentURL((String) urlspec).getPath());
+        } catch (IllegalArgumentException ex) {
+            file = new File(toContentURL((String) urlspec).getPath());
+        }
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Get the file for the given file URL. Escaped characters in the URL are decoded.
+     */
+    static File toFile(URL url) {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException ex) {
+            return new File(url.getPath());
+        }
+    }
+
+    // The shared executor is only created on first use
+    private static final class DefaultAsyncExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "RepositoryAsync-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     private static URL toContentURL(String urlspec) {
         try {
             return new URL(urlspec);
@@ -148,6 +514,16 @@ public abstract class AbstractRepository implements XRepository {
         }
     }
 
+    private void safeClose(ZipFile zipFile) {
+        try {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
     private void safeClose(InputStream content) {
         try {
             if (content != null) {
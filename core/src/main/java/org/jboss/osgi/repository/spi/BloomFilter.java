@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact probabilistic set of string values.
+ *
+ * {@link #mightContain(String)} never returns false for a value that was added,
+ * but may return true for a value that was not. Values cannot be removed.
+ * Adding more values than the expected number of insertions raises the false positive rate.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final int bitSize;
+    private final int hashCount;
+
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1)
+            throw new IllegalArgumentException("Invalid expected insertions: " + expectedInsertions);
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+
+        double ln2 = Math.log(2);
+        long size = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bitSize = (int) Math.max(64, Math.min(size, Integer.MAX_VALUE - 63));
+        hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * ln2));
+        bits = new AtomicLongArray((bitSize + 63) / 64);
+    }
+
+    public int getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public void add(String value) {
+        int h1 = mix(value.hashCode());
+        int h2 = secondHash(value);
+        for (int i = 0; i < hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitSize;
+            long mask = 1L << (index & 63);
+            int word = index >>> 6;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        int h1 = mix(value.hashCode());
+        int h2 = secondHash(value);
+        for (int i = 0; i < hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitSize;
+            if ((bits.get(index >>> 6) & (1L << (index & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // The murmur3 finalizer
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    // FNV-1a, forced odd so that all probes differ
+    private static int secondHash(String value) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
@@ -30,10 +30,15 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.jboss.osgi.repository.InternPool;
 import org.jboss.osgi.repository.Namespace100.Attribute;
 import org.jboss.osgi.repository.RepositoryContentHelper;
 import org.jboss.osgi.repository.RepositoryReader;
@@ -85,19 +90,21 @@ public class FileBasedRepositoryStorage extends MemoryRepositoryStorage {
         if (repoFile.exists()) {
             RepositoryReader reader;
             try {
-                reader = RepositoryXMLReader.create(new FileInputStream(repoFile));
+                reader = RepositoryXMLReader.create(new FileInputStream(repoFile), getInternPool());
             } catch (IOException ex) {
                 throw MESSAGES.cannotInitializeRepositoryReader(ex);
             }
             String incatt = reader.getRepositoryAttributes().get(Attribute.INCREMENT.getLocalName());
             Long increment = new Long(incatt != null ? incatt : "0");
+            List<XResource> resources = new ArrayList<XResource>();
             XResource res = reader.nextResource();
             while(res != null) {
-                addResourceInternal(res, false);
+                resources.add(prepareResource(res));
                 res = reader.nextResource();
             }
-            long delta = increment - getResourceIndex().get();
-            getResourceIndex().addAndGet(delta);
+            // Load all resources into a single index
+            super.addResources(resources);
+            restoreResourceIndex(increment);
             reader.close();
         }
     }
@@ -107,23 +114,84 @@ public class FileBasedRepositoryStorage extends MemoryRepositoryStorage {
         return addResourceInternal(res, true);
     }
 
+    @Override
+    public synchronized Collection<XResource> addResources(Collection<? extends XResource> resources) throws RepositoryStorageException {
+        if (resources == null)
+            throw MESSAGES.illegalArgumentNull("resources");
+
+        // Validate the whole batch and drop duplicates before any content is copied
+        List<XResource> accepted = new ArrayList<XResource>();
+        Set<Map<String, Object>> identities = new HashSet<Map<String, Object>>();
+        for (XResource res : resources) {
+            validateResource(res);
+            XIdentityCapability icap = res.getIdentityCapability();
+            if (getResource(icap) == null && identities.add(icap.getAttributes())) {
+                accepted.add(res);
+            }
+        }
+
+        // Add all resources as one change and write the repository XML once
+        List<XResource> prepared = new ArrayList<XResource>();
+        Collection<XResource> result;
+        try {
+            for (XResource res : accepted) {
+                prepared.add(prepareResource(res));
+            }
+            result = super.addResources(prepared);
+        } catch (RuntimeException ex) {
+            for (int i = 0; i < prepared.size(); i++) {
+                deleteCopiedContent(accepted.get(i), prepared.get(i));
+            }
+            throw ex;
+        }
+        if (!result.isEmpty()) {
+            writeRepositoryXML();
+        }
+        return result;
+    }
+
     private synchronized XResource addResourceInternal(XResource res, boolean writeXML) throws RepositoryStorageException {
+        validateResource(res);
+        if (getResource(res.getIdentityCapability()) != null)
+            throw MESSAGES.resourceAlreadyExists(res);
+
+        XResource prepared = prepareResource(res);
+        XResource result;
+        try {
+            result = super.addResource(prepared);
+        } catch (RuntimeException ex) {
+            deleteCopiedContent(res, prepared);
+            throw ex;
+        }
+        if (writeXML == true) {
+            writeRepositoryXML();
+        }
+        return result;
+    }
+
+    private void validateResource(XResource res) throws RepositoryStorageException {
         if (res == null)
             throw MESSAGES.illegalArgumentNull("resource");
 
         XIdentityCapability icap = res.getIdentityCapability();
         if (XResource.MAVEN_IDENTITY_NAMESPACE.equals(icap.getNamespace()))
             throw MESSAGES.cannotAddMavenResourceToStorage(null, res);
+    }
 
+    // Get the resource to add to the index, which refers to content in this storage
+    private XResource prepareResource(XResource res) throws RepositoryStorageException {
+        validateResource(res);
+
+        XIdentityCapability icap = res.getIdentityCapability();
         String moduleId = (String) icap.getAttribute(XResource.MODULE_IDENTITY_NAMESPACE);
         if (res.isAbstract() || moduleId != null) {
-            return addAbstractResource(res, writeXML);
+            return res;
         } else {
-            return addContentResource(res, writeXML);
+            return prepareContentResource(res);
         }
     }
 
-    private XResource addContentResource(XResource res, boolean writeXML) throws RepositoryStorageException {
+    private XResource prepareContentResource(XResource res) throws RepositoryStorageException {
         List<Capability> ccaps = res.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
         if (ccaps.isEmpty())
             throw MESSAGES.cannotObtainContentCapablility(res);
@@ -137,32 +205,22 @@ public class FileBasedRepositoryStorage extends MemoryRepositoryStorage {
 
         // Copy the resource to this storage, if the content URL does not match
         if (contentURL.startsWith(getBaseURL().toExternalForm()) == false) {
+            InternPool internPool = getInternPool();
             XResourceBuilder<XResource> builder = createResourceInternal(res);
             for (Capability cap : res.getCapabilities(null)) {
                 if (!ContentNamespace.CONTENT_NAMESPACE.equals(cap.getNamespace())) {
-                    builder.addCapability(cap.getNamespace(), cap.getAttributes(), cap.getDirectives());
+                    String namespace = internPool.intern(cap.getNamespace());
+                    builder.addCapability(namespace, internPool.internAttributes(cap.getAttributes()), internPool.internDirectives(cap.getDirectives()));
                 }
             }
             for (Requirement req : res.getRequirements(null)) {
-                String namespace = req.getNamespace();
-                builder.addRequirement(namespace, req.getAttributes(), req.getDirectives());
+                String namespace = internPool.intern(req.getNamespace());
+                builder.addRequirement(namespace, internPool.internAttributes(req.getAttributes()), internPool.internDirectives(req.getDirectives()));
             }
             result = builder.getResource();
         } else {
             result = res;
         }
-        result = super.addResource(result);
-        if (writeXML == true) {
-            writeRepositoryXML();
-        }
-        return result;
-    }
-
-    private XResource addAbstractResource(XResource res, boolean writeXML) throws RepositoryStorageException {
-        XResource result = super.addResource(res);
-        if (writeXML == true) {
-            writeRepositoryXML();
-        }
         return result;
     }
 
@@ -172,6 +230,15 @@ public class FileBasedRepositoryStorage extends MemoryRepositoryStorage {
     }
 
     private synchronized boolean removeResourceInternal(XResource res, boolean writeXML) {
+        boolean result = deleteResourceContent(res);
+        result &= super.removeResource(res);
+        if (writeXML == true) {
+            writeRepositoryXML();
+        }
+        return result;
+    }
+
+    private boolean deleteResourceContent(XResource res) {
         boolean result = true;
         List<Capability> ccaps = res.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
         if (!ccaps.isEmpty()) {
@@ -182,13 +249,16 @@ public class FileBasedRepositoryStorage extends MemoryRepositoryStorage {
                 result = deleteRecursive(contentFile.getParentFile());
             }
         }
-        result &= super.removeResource(res);
-        if (writeXML == true) {
-            writeRepositoryXML();
-        }
         return result;
     }
 
+    // Delete the content that was copied to this storage for a resource that could not be added
+    private void deleteCopiedContent(XResource res, XResource prepared) {
+        if (prepared != res) {
+            deleteResourceContent(prepared);
+        }
+    }
+
     private XResourceBuilder<XResource> createResourceInternal(XResource resource) {
         XResourceBuilder<XResource> factory = null;
         for (Capability cap : resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE)) {
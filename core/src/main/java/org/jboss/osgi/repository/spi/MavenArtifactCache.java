@@ -0,0 +1,520 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
+import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+
+import org.jboss.osgi.repository.RepositoryContentHelper;
+import org.jboss.osgi.resolver.MavenCoordinates;
+
+/**
+ * A disk based cache of downloaded maven artifacts.
+ *
+ * Artifacts are stored content addressed by their SHA-256 digest, the same way
+ * {@link FileBasedRepositoryStorage} stores its content. The cache is bounded
+ * in size and evicts the least recently used artifacts first. Artifacts with the
+ * same content share one file, which counts towards the size once.
+ *
+ * The access order is kept in the cache index. The index is written when entries are
+ * added or removed and on {@link #flush()}, but not on every cache hit.
+ *
+ * Snapshot versions can change in the remote repository and are never cached.
+ *
+ * Content that is in use is pinned and never deleted. An entry returned by
+ * {@link #getArtifact(MavenCoordinates)} or {@link #addArtifact(MavenCoordinates, InputStream)}
+ * stays pinned until {@link #releaseArtifact(CacheEntry)} is called. An entry that is passed
+ * to {@link #retainArtifact(CacheEntry, Object)} stays pinned for as long as the owner is reachable,
+ * so that resources which point to the cached content keep working after eviction.
+ * Pinned entries are skipped by eviction, which may take the cache above its maximum size.
+ *
+ * The bundle manifest of an artifact can be stored next to its content, so that the
+ * metadata of a cached artifact is available without opening the jar.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class MavenArtifactCache {
+
+    public static final String CACHE_INDEX_NAME = "cache-index.txt";
+    public static final String MANIFEST_NAME = "manifest";
+
+    /** The default cache size in bytes */
+    public static final long DEFAULT_CACHE_SIZE = 256 * 1024 * 1024;
+
+    private final File cacheDir;
+    private final File indexFile;
+    private final long maxSize;
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private final Map<String, Integer> pinCounts = new HashMap<String, Integer>();
+    private final Map<String, Integer> contentCounts = new HashMap<String, Integer>();
+    private final ReferenceQueue<Object> ownerQueue = new ReferenceQueue<Object>();
+    private final Set<OwnerReference> owners = new HashSet<OwnerReference>();
+    private long totalSize;
+    private boolean accessOrderChanged;
+
+    /** Pins the content with the given digest while the owner is reachable */
+    private static final class OwnerReference extends PhantomReference<Object> {
+        private final String digest;
+
+        OwnerReference(Object owner, String digest, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.digest = digest;
+        }
+    }
+
+    /** A cached artifact */
+    public static final class CacheEntry {
+        private final String coordinates;
+        private final String digest;
+        private final long size;
+        private final File contentFile;
+
+        CacheEntry(String coordinates, String digest, long size, File contentFile) {
+            this.coordinates = coordinates;
+            this.digest = digest;
+            this.size = size;
+            this.contentFile = contentFile;
+        }
+
+        public String getCoordinates() {
+            return coordinates;
+        }
+
+        /** Get the SHA-256 digest of the artifact content */
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public URL getContentURL() {
+            try {
+                return contentFile.toURI().toURL();
+            } catch (MalformedURLException ex) {
+                throw MESSAGES.invalidContentURL(contentFile.getPath());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "CacheEntry[" + coordinates + "," + digest + "]";
+        }
+    }
+
+    public MavenArtifactCache(File cacheDir, long maxSize) {
+        if (cacheDir == null)
+            throw MESSAGES.illegalArgumentNull("cacheDir");
+        this.cacheDir = cacheDir.getAbsoluteFile();
+        this.indexFile = new File(this.cacheDir, CACHE_INDEX_NAME);
+        this.maxSize = maxSize;
+        readIndex();
+    }
+
+    /**
+     * True if the artifact for the given coordinates is immutable and can be cached
+     */
+    public static boolean isCacheable(MavenCoordinates mavenId) {
+        String version = mavenId.getVersion();
+        return version != null && !version.endsWith("SNAPSHOT");
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * Get the cached artifact for the given coordinates.
+     * The returned entry is pinned until it is released.
+     *
+     * @return The cache entry or null
+     */
+    public synchronized CacheEntry getArtifact(MavenCoordinates mavenId) {
+        expungeOwners();
+        CacheEntry entry = entries.get(mavenId.toExternalForm());
+        if (entry != null && !entry.contentFile.isFile()) {
+            removeEntry(entry);
+            entry = null;
+        }
+        if (entry != null) {
+            pin(entry.digest);
+            accessOrderChanged = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Write the cache index if the access order changed since it was last written,
+     * so that the eviction order survives a restart
+     */
+    public synchronized void flush() {
+        if (accessOrderChanged) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Release the pin that was obtained from {@link #getArtifact(MavenCoordinates)}
+     * or {@link #addArtifact(MavenCoordinates, InputStream)}
+     */
+    public synchronized void releaseArtifact(CacheEntry entry) {
+        if (entry == null)
+            throw MESSAGES.illegalArgumentNull("entry");
+        unpin(entry.digest);
+        expungeOwners();
+        if (totalSize > maxSize) {
+            evictEntries();
+            writeIndex();
+        }
+    }
+
+    /**
+     * Pin the content of the given entry for as long as the given owner is reachable
+     */
+    public synchronized void retainArtifact(CacheEntry entry, Object owner) {
+        if (entry == null)
+            throw MESSAGES.illegalArgumentNull("entry");
+        if (owner == null)
+            throw MESSAGES.illegalArgumentNull("owner");
+        pin(entry.digest);
+        owners.add(new OwnerReference(owner, entry.digest, ownerQueue));
+    }
+
+    /**
+     * True if the content of the given entry is in use
+     */
+    public synchronized boolean isPinned(CacheEntry entry) {
+        expungeOwners();
+        return pinCounts.containsKey(entry.digest);
+    }
+
+    /**
+     * Get the bundle manifest that was stored for the content with the given digest
+     *
+     * @return The manifest or null
+     */
+    public Manifest getManifest(String digest) {
+        File manifestFile = getManifestFile(digest);
+        if (!manifestFile.isFile())
+            return null;
+        try {
+            InputStream input = new FileInputStream(manifestFile);
+            try {
+                return new Manifest(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.debugf(ex, "Cannot read cached manifest: %s", manifestFile);
+            return null;
+        }
+    }
+
+    /**
+     * Store the bundle manifest for the content with the given digest.
+     * The manifest is only stored if the content is cached.
+     */
+    public synchronized void putManifest(String digest, Manifest manifest) {
+        if (manifest == null)
+            throw MESSAGES.illegalArgumentNull("manifest");
+        if (!getContentFile(digest).isFile())
+            return;
+        File manifestFile = getManifestFile(digest);
+        try {
+            File tempFile = File.createTempFile("manifest", ".tmp", manifestFile.getParentFile());
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                manifest.write(output);
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(manifestFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException ex) {
+            LOGGER.debugf(ex, "Cannot write cached manifest: %s", manifestFile);
+        }
+    }
+
+    /**
+     * Add the artifact content for the given coordinates to the cache.
+     * The given input stream is consumed and closed.
+     * The returned entry is pinned until it is released.
+     *
+     * @return The cache entry
+     */
+    public CacheEntry addArtifact(MavenCoordinates mavenId, InputStream input) throws IOException {
+        if (mavenId == null)
+            throw MESSAGES.illegalArgumentNull("mavenId");
+        if (input == null)
+            throw MESSAGES.illegalArgumentNull("input");
+
+        // Download to a temporary file outside the lock
+        cacheDir.mkdirs();
+        File tempFile = File.createTempFile("download", ".tmp", cacheDir);
+        String digest;
+        long size = 0;
+        try {
+            MessageDigest md = MessageDigest.getInstance(RepositoryContentHelper.DEFAULT_DIGEST_ALGORITHM);
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = input.read(buffer)) >= 0) {
+                    md.update(buffer, 0, len);
+                    output.write(buffer, 0, len);
+                    size += len;
+                }
+            } finally {
+                output.close();
+                input.close();
+            }
+            digest = RepositoryContentHelper.toHexString(md.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            tempFile.delete();
+            throw MESSAGES.noSuchAlgorithm(ex, RepositoryContentHelper.DEFAULT_DIGEST_ALGORITHM);
+        } catch (IOException ex) {
+            tempFile.delete();
+            throw ex;
+        }
+
+        synchronized (this) {
+            expungeOwners();
+            // Pin first, so that replacing an entry with the same content keeps the file
+            pin(digest);
+            File contentFile = getContentFile(digest);
+            if (contentFile.isFile()) {
+                tempFile.delete();
+            } else {
+                contentFile.getParentFile().mkdirs();
+                if (!tempFile.renameTo(contentFile)) {
+                    tempFile.delete();
+                    unpin(digest);
+                    throw new IOException("Cannot move artifact to: " + contentFile);
+                }
+            }
+            String coordinates = mavenId.toExternalForm();
+            CacheEntry previous = entries.get(coordinates);
+            if (previous != null) {
+                removeEntry(previous);
+            }
+            CacheEntry entry = new CacheEntry(coordinates, digest, size, contentFile);
+            addEntry(entry);
+            evictEntries();
+            writeIndex();
+            LOGGER.debugf("Cached maven artifact: %s", entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Remove the artifact for the given coordinates from the cache
+     *
+     * @return true if the artifact was cached
+     */
+    public synchronized boolean removeArtifact(MavenCoordinates mavenId) {
+        CacheEntry entry = entries.get(mavenId.toExternalForm());
+        if (entry != null) {
+            removeEntry(entry);
+            writeIndex();
+        }
+        return entry != null;
+    }
+
+    private void evictEntries() {
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        List<CacheEntry> evicted = new ArrayList<CacheEntry>();
+        Map<String, Integer> evictedCounts = new HashMap<String, Integer>();
+        long size = totalSize;
+        // Always keep the most recently used entry
+        while (size > maxSize && entries.size() - evicted.size() > 1 && iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (pinCounts.containsKey(entry.digest))
+                continue;
+            evicted.add(entry);
+            // The content is only freed with the last entry that uses it
+            Integer count = evictedCounts.get(entry.digest);
+            count = count != null ? count + 1 : 1;
+            evictedCounts.put(entry.digest, count);
+            if (count.equals(contentCounts.get(entry.digest))) {
+                size -= entry.size;
+            }
+        }
+        for (CacheEntry entry : evicted) {
+            LOGGER.debugf("Evict maven artifact: %s", entry);
+            removeEntry(entry);
+        }
+    }
+
+    private void addEntry(CacheEntry entry) {
+        entries.put(entry.coordinates, entry);
+        Integer count = contentCounts.get(entry.digest);
+        if (count == null) {
+            contentCounts.put(entry.digest, 1);
+            totalSize += entry.size;
+        } else {
+            contentCounts.put(entry.digest, count + 1);
+        }
+    }
+
+    private void removeEntry(CacheEntry entry) {
+        entries.remove(entry.coordinates);
+        Integer count = contentCounts.get(entry.digest);
+        if (count > 1) {
+            contentCounts.put(entry.digest, count - 1);
+        } else {
+            contentCounts.remove(entry.digest);
+            totalSize -= entry.size;
+        }
+        deleteUnusedContent(entry.digest);
+    }
+
+    /**
+     * Delete the content with the given digest, unless it is pinned or still cached
+     */
+    private void deleteUnusedContent(String digest) {
+        if (pinCounts.containsKey(digest) || contentCounts.containsKey(digest))
+            return;
+        File contentFile = getContentFile(digest);
+        contentFile.delete();
+        getManifestFile(digest).delete();
+        contentFile.getParentFile().delete();
+    }
+
+    private void pin(String digest) {
+        Integer count = pinCounts.get(digest);
+        pinCounts.put(digest, count != null ? count + 1 : 1);
+    }
+
+    private void unpin(String digest) {
+        Integer count = pinCounts.get(digest);
+        if (count == null)
+            return;
+        if (count > 1) {
+            pinCounts.put(digest, count - 1);
+        } else {
+            pinCounts.remove(digest);
+            deleteUnusedContent(digest);
+        }
+    }
+
+    /**
+     * Release the pins of owners that are no longer reachable
+     */
+    private void expungeOwners() {
+        Reference<? extends Object> ref = ownerQueue.poll();
+        while (ref != null) {
+            OwnerReference owner = (OwnerReference) ref;
+            owners.remove(owner);
+            unpin(owner.digest);
+            ref = ownerQueue.poll();
+        }
+    }
+
+    private File getContentFile(String digest) {
+        String contentPath = digest.substring(0, 2) + File.separator + digest.substring(2) + File.separator + "content";
+        return new File(cacheDir, contentPath);
+    }
+
+    private File getManifestFile(String digest) {
+        return new File(getContentFile(digest).getParentFile(), MANIFEST_NAME);
+    }
+
+    private void readIndex() {
+        if (!indexFile.isFile())
+            return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length == 3) {
+                        File contentFile = getContentFile(parts[0]);
+                        if (contentFile.isFile()) {
+                            CacheEntry entry = new CacheEntry(parts[2], parts[0], Long.parseLong(parts[1]), contentFile);
+                            addEntry(entry);
+                        }
+                    }
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.warnCannotAccessArtifactCacheIndex(ex, indexFile);
+        } catch (NumberFormatException ex) {
+            LOGGER.warnCannotAccessArtifactCacheIndex(ex, indexFile);
+        }
+    }
+
+    private void writeIndex() {
+        // Entries are written in access order, least recently used first
+        try {
+            PrintWriter writer = new PrintWriter(new FileOutputStream(indexFile));
+            try {
+                for (CacheEntry entry : entries.values()) {
+                    writer.println(entry.digest + " " + entry.size + " " + entry.coordinates);
+                }
+            } finally {
+                writer.close();
+            }
+            accessOrderChanged = false;
+        } catch (IOException ex) {
+            LOGGER.warnCannotAccessArtifactCacheIndex(ex, indexFile);
+        }
+    }
+}
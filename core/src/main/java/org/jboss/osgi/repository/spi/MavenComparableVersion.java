@@ -0,0 +1,286 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A maven version that orders like maven does.
+ *
+ * The version is split into numeric and string items at dots, dashes and transitions between
+ * digits and letters. A dash starts a nested list. Trailing zeros and release qualifiers are dropped,
+ * so <code>2.0</code>, <code>2.0.0</code> and <code>2.0.Final</code> are equal.
+ *
+ * Well-known qualifiers order as <code>alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; release &lt; sp</code>,
+ * with <code>a1</code>, <code>b1</code>, <code>m1</code> and <code>cr</code> as aliases.
+ * Other qualifiers sort after the known ones, lexically. Every qualifier that sorts
+ * before the release makes the version lower than the plain release, e.g.
+ * <code>2.0-alpha-1 &lt; 2.0-RC1 &lt; 2.0-SNAPSHOT &lt; 2.0</code>.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class MavenComparableVersion implements Comparable<MavenComparableVersion> {
+
+    private final String version;
+    private final ListItem items;
+
+    public MavenComparableVersion(String version) {
+        if (version == null)
+            throw new IllegalArgumentException("Null version");
+        this.version = version;
+        this.items = parseVersion(version);
+    }
+
+    @Override
+    public int compareTo(MavenComparableVersion other) {
+        return items.compareTo(other.items);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof MavenComparableVersion && compareTo((MavenComparableVersion) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return items.toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return version;
+    }
+
+    private static ListItem parseVersion(String version) {
+        version = version.toLowerCase(Locale.ENGLISH);
+        ListItem list = new ListItem();
+        ListItem result = list;
+        Deque<ListItem> stack = new ArrayDeque<ListItem>();
+        stack.push(list);
+
+        boolean isDigit = false;
+        int startIndex = 0;
+        for (int i = 0; i < version.length(); i++) {
+            char ch = version.charAt(i);
+            if (ch == '.' || ch == '-') {
+                list.add(i == startIndex ? IntItem.ZERO : parseItem(isDigit, version.substring(startIndex, i)));
+                startIndex = i + 1;
+                if (ch == '-') {
+                    list = addList(list, stack);
+                }
+            } else if (Character.isDigit(ch)) {
+                if (!isDigit && i > startIndex) {
+                    // A qualifier that is directly followed by a number, like rc1
+                    list.add(new StringItem(version.substring(startIndex, i), true));
+                    startIndex = i;
+                    list = addList(list, stack);
+                }
+                isDigit = true;
+            } else {
+                if (isDigit && i > startIndex) {
+                    list.add(parseItem(true, version.substring(startIndex, i)));
+                    startIndex = i;
+                    list = addList(list, stack);
+                }
+                isDigit = false;
+            }
+        }
+        if (version.length() > startIndex) {
+            list.add(parseItem(isDigit, version.substring(startIndex)));
+        }
+        while (!stack.isEmpty()) {
+            stack.pop().normalize();
+        }
+        return result;
+    }
+
+    private static ListItem addList(ListItem list, Deque<ListItem> stack) {
+        ListItem sublist = new ListItem();
+        list.add(sublist);
+        stack.push(sublist);
+        return sublist;
+    }
+
+    private static Item parseItem(boolean isDigit, String buf) {
+        return isDigit ? new IntItem(buf) : new StringItem(buf, false);
+    }
+
+    /**
+     * An item of a version. Comparing with null compares with an absent item, which counts as a release.
+     */
+    private interface Item {
+
+        int compareTo(Item item);
+
+        boolean isNull();
+    }
+
+    private static final class IntItem implements Item {
+        private static final IntItem ZERO = new IntItem("0");
+        private final BigInteger value;
+
+        IntItem(String value) {
+            this.value = new BigInteger(value);
+        }
+
+        @Override
+        public boolean isNull() {
+            return value.signum() == 0;
+        }
+
+        @Override
+        public int compareTo(Item item) {
+            if (item == null)
+                return isNull() ? 0 : 1;
+            if (item instanceof IntItem)
+                return value.compareTo(((IntItem) item).value);
+            // 1.1 > 1-sp > 1-1
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    private static final class StringItem implements Item {
+        private static final List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+        private static final String RELEASE_VERSION_INDEX = String.valueOf(QUALIFIERS.indexOf(""));
+        private static final Map<String, String> ALIASES = new HashMap<String, String>();
+        static {
+            ALIASES.put("ga", "");
+            ALIASES.put("final", "");
+            ALIASES.put("release", "");
+            ALIASES.put("cr", "rc");
+        }
+        private final String value;
+
+        StringItem(String value, boolean followedByDigit) {
+            if (followedByDigit && value.length() == 1) {
+                // a1 = alpha-1, b1 = beta-1, m1 = milestone-1
+                switch (value.charAt(0)) {
+                    case 'a':
+                        value = "alpha";
+                        break;
+                    case 'b':
+                        value = "beta";
+                        break;
+                    case 'm':
+                        value = "milestone";
+                        break;
+                }
+            }
+            String alias = ALIASES.get(value);
+            this.value = alias != null ? alias : value;
+        }
+
+        @Override
+        public boolean isNull() {
+            return comparableQualifier(value).compareTo(RELEASE_VERSION_INDEX) == 0;
+        }
+
+        @Override
+        public int compareTo(Item item) {
+            if (item == null)
+                return comparableQualifier(value).compareTo(RELEASE_VERSION_INDEX);
+            if (item instanceof StringItem)
+                return comparableQualifier(value).compareTo(comparableQualifier(((StringItem) item).value));
+            // 1.any < 1.1 and 1.any < 1-1
+            return -1;
+        }
+
+        // Known qualifiers sort by their index, unknown ones after them
+        private static String comparableQualifier(String qualifier) {
+            int index = QUALIFIERS.indexOf(qualifier);
+            return index < 0 ? QUALIFIERS.size() + "-" + qualifier : String.valueOf(index);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class ListItem extends ArrayList<Item> implements Item {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean isNull() {
+            return isEmpty();
+        }
+
+        // Drop trailing null items, but not across a nested list
+        void normalize() {
+            for (int i = size() - 1; i >= 0; i--) {
+                Item item = get(i);
+                if (item.isNull()) {
+                    remove(i);
+                } else if (!(item instanceof ListItem)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Item item) {
+            if (item == null) {
+                // 1-0 = 1- (normalize) = 1
+                return isEmpty() ? 0 : get(0).compareTo(null);
+            }
+            if (item instanceof IntItem)
+                return -1;
+            if (item instanceof StringItem)
+                return 1;
+            Iterator<Item> left = iterator();
+            Iterator<Item> right = ((ListItem) item).iterator();
+            while (left.hasNext() || right.hasNext()) {
+                Item l = left.hasNext() ? left.next() : null;
+                Item r = right.hasNext() ? right.next() : null;
+                int result = l == null ? (r == null ? 0 : -1 * r.compareTo(null)) : l.compareTo(r);
+                if (result != 0)
+                    return result;
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("(");
+            for (Iterator<Item> iterator = iterator(); iterator.hasNext();) {
+                builder.append(iterator.next());
+                if (iterator.hasNext()) {
+                    builder.append(',');
+                }
+            }
+            return builder.append(')').toString();
+        }
+    }
+}
@@ -23,17 +23,40 @@ import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
 import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Manifest;
 
 import org.jboss.osgi.repository.URLResourceBuilderFactory;
+import org.jboss.osgi.repository.XContentCapability;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.spi.MavenArtifactCache.CacheEntry;
 import org.jboss.osgi.resolver.MavenCoordinates;
+import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XResource;
 import org.jboss.osgi.resolver.XResourceBuilder;
@@ -41,6 +64,7 @@ import org.jboss.osgi.resolver.spi.AbstractRequirement;
 import org.osgi.framework.Filter;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
+import org.osgi.service.repository.ContentNamespace;
 
 /**
  * A simple {@link XRepository} that delegates to a maven repositories.
@@ -51,6 +75,14 @@ import org.osgi.resource.Requirement;
 public class MavenIdentityRepository extends AbstractRepository implements XRepository {
 
     private final URL[] baserepos;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final ExecutorService executor;
+    private final MavenArtifactCache artifactCache;
+    private final Map<String, Long> negativeCache;
+    private final long negativeCacheTTL;
+    private final List<MavenMirrorStatistics> mirrorStatistics;
+    private final MavenMetadataCache metadataCache;
 
     /** The configuration for the {@link MavenIdentityRepository} */
     public interface Configuration {
@@ -61,6 +93,27 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
         /** The default Maven Central repository: http://repo1.maven.org/maven2 */
         String MAVEN_CENTRAL_BASE = "http://repo1.maven.org/maven2";
 
+        /** The default connect timeout in milliseconds */
+        int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+        /** The default read timeout in milliseconds */
+        int DEFAULT_READ_TIMEOUT = 30000;
+
+        /** The default time to live of a negative lookup in milliseconds */
+        long DEFAULT_NEGATIVE_CACHE_TTL = 5 * 60 * 1000;
+
+        /** The default maximum number of negative lookups that are remembered */
+        int DEFAULT_NEGATIVE_CACHE_SIZE = 1000;
+
+        /** The default number of consecutive failures after which a mirror is skipped */
+        int DEFAULT_MIRROR_FAILURE_THRESHOLD = 3;
+
+        /** The default time in milliseconds for which a failing mirror is skipped */
+        long DEFAULT_MIRROR_COOLDOWN = 30 * 1000;
+
+        /** The default time to live of cached maven-metadata.xml in milliseconds */
+        long DEFAULT_METADATA_TTL = 10 * 60 * 1000;
+
         /** Get the list of configured base URLs */
         List<URL> getBaseURLs();
     }
@@ -73,24 +126,64 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
     }
 
     public MavenIdentityRepository() {
-        this(new ConfigurationPropertyProvider() {
-            @Override
-            public String getProperty(String key, String defaultValue) {
-                return SecurityActions.getSystemProperty(key, defaultValue);
-            }
-        });
+        this(getSystemPropertyProvider());
     }
 
     public MavenIdentityRepository(ConfigurationPropertyProvider provider) {
-        this(getDefaultConfiguration(provider));
+        this(getDefaultConfiguration(provider), provider);
     }
 
     public MavenIdentityRepository(Configuration configuration) {
+        this(configuration, getSystemPropertyProvider());
+    }
+
+    public MavenIdentityRepository(Configuration configuration, ConfigurationPropertyProvider provider) {
+        if (configuration == null)
+            throw MESSAGES.illegalArgumentNull("configuration");
+        if (provider == null)
+            throw MESSAGES.illegalArgumentNull("provider");
+
         List<URL> repos = new ArrayList<URL>();
         for (URL baseURL : configuration.getBaseURLs()) {
             repos.add(baseURL);
         }
         baserepos = repos.toArray(new URL[repos.size()]);
+        int failureThreshold = getIntegerProperty(provider, PROPERTY_MAVEN_REPOSITORY_MIRROR_FAILURE_THRESHOLD, Configuration.DEFAULT_MIRROR_FAILURE_THRESHOLD);
+        long cooldown = getLongProperty(provider, PROPERTY_MAVEN_REPOSITORY_MIRROR_COOLDOWN, Configuration.DEFAULT_MIRROR_COOLDOWN);
+        List<MavenMirrorStatistics> mirrors = new ArrayList<MavenMirrorStatistics>();
+        for (URL baseURL : baserepos) {
+            mirrors.add(new MavenMirrorStatistics(baseURL, failureThreshold, cooldown));
+        }
+        mirrorStatistics = Collections.unmodifiableList(mirrors);
+        connectTimeout = getIntegerProperty(provider, PROPERTY_MAVEN_REPOSITORY_CONNECT_TIMEOUT, Configuration.DEFAULT_CONNECT_TIMEOUT);
+        readTimeout = getIntegerProperty(provider, PROPERTY_MAVEN_REPOSITORY_READ_TIMEOUT, Configuration.DEFAULT_READ_TIMEOUT);
+        long metadataTTL = getLongProperty(provider, PROPERTY_MAVEN_REPOSITORY_METADATA_TTL, Configuration.DEFAULT_METADATA_TTL);
+        metadataCache = new MavenMetadataCache(metadataTTL, connectTimeout, readTimeout);
+        String cacheDir = provider.getProperty(PROPERTY_MAVEN_REPOSITORY_CACHE_DIR, null);
+        if (cacheDir != null) {
+            long cacheSize = getLongProperty(provider, PROPERTY_MAVEN_REPOSITORY_CACHE_SIZE, MavenArtifactCache.DEFAULT_CACHE_SIZE);
+            artifactCache = new MavenArtifactCache(new File(cacheDir), cacheSize);
+        } else {
+            artifactCache = null;
+        }
+        negativeCacheTTL = getLongProperty(provider, PROPERTY_MAVEN_REPOSITORY_NEGATIVE_CACHE_TTL, Configuration.DEFAULT_NEGATIVE_CACHE_TTL);
+        final int negativeCacheSize = getIntegerProperty(provider, PROPERTY_MAVEN_REPOSITORY_NEGATIVE_CACHE_SIZE, Configuration.DEFAULT_NEGATIVE_CACHE_SIZE);
+        negativeCache = new LinkedHashMap<String, Long>() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > negativeCacheSize;
+            }
+        };
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "MavenIdentityRepository-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -124,6 +217,11 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
         };
     }
 
+    @Override
+    public Collection<String> getSupportedNamespaces() {
+        return Collections.singleton(XResource.MAVEN_IDENTITY_NAMESPACE);
+    }
+
     @Override
     public Collection<Capability> findProviders(Requirement req) {
 
@@ -145,24 +243,138 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
             mavenId = MavenCoordinates.parse(nsvalue);
         }
 
+        if (MavenVersionRange.isVersionRange(mavenId.getVersion())) {
+            return findProvidersInRange(mavenId);
+        }
+
+        return findMavenProviders(mavenId);
+    }
+
+    /**
+     * Find the provider for the highest available version in the requested range.
+     * Available versions are taken from the maven metadata of every base.
+     */
+    private Collection<Capability> findProvidersInRange(MavenCoordinates mavenId) {
+        MavenVersionRange range;
+        try {
+            range = MavenVersionRange.parse(mavenId.getVersion());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.debugf("Invalid version range: %s", mavenId);
+            return Collections.emptyList();
+        }
+        List<String> candidates = new ArrayList<String>();
+        for (String version : getAvailableVersions(mavenId.getGroupId(), mavenId.getArtifactId())) {
+            if (range.includes(version)) {
+                candidates.add(version);
+            }
+        }
+        Collections.sort(candidates, new Comparator<String>() {
+            @Override
+            public int compare(String v1, String v2) {
+                return new MavenComparableVersion(v2).compareTo(new MavenComparableVersion(v1));
+            }
+        });
+        LOGGER.debugf("Versions in range %s: %s", mavenId, candidates);
+        for (String version : candidates) {
+            MavenCoordinates candidate = MavenCoordinates.create(mavenId.getGroupId(), mavenId.getArtifactId(), version, mavenId.getType(), mavenId.getClassifier());
+            Collection<Capability> result = findMavenProviders(candidate);
+            if (!result.isEmpty()) {
+                return result;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the union of the versions that all bases list for the given groupId/artifactId
+     */
+    private Set<String> getAvailableVersions(final String groupId, final String artifactId) {
+        Set<String> result = new LinkedHashSet<String>();
+        List<URL> bases = new ArrayList<URL>();
+        List<Future<List<String>>> fetches = new ArrayList<Future<List<String>>>();
+        for (final MavenMirrorStatistics mirror : mirrorStatistics) {
+            if (mirror.isCircuitOpen())
+                continue;
+            bases.add(mirror.getBaseURL());
+            fetches.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    return metadataCache.getVersions(mirror.getBaseURL(), groupId, artifactId);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < fetches.size(); i++) {
+                try {
+                    result.addAll(fetches.get(i).get());
+                } catch (ExecutionException ex) {
+                    LOGGER.debugf(ex.getCause(), "Cannot access maven metadata: %s", bases.get(i));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            for (Future<List<String>> fetch : fetches) {
+                fetch.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private Collection<Capability> findMavenProviders(MavenCoordinates mavenId) {
+
+        // A negative cache entry only tells that the remote bases do not have the artifact
+        if (isNegativeCached(mavenId)) {
+            URL contentURL = findFileArtifactURL(mavenId);
+            if (contentURL == null) {
+                LOGGER.debugf("Skip lookup of missing maven artifact: %s", mavenId);
+                return Collections.emptyList();
+            }
+            return findMavenProviders(mavenId, contentURL, false, null);
+        }
+
         LOGGER.infoFindMavenProviders(mavenId);
 
+        // Release artifacts are immutable and can be served from the local cache
         URL contentURL = null;
-        for (URL baseURL : baserepos) {
-            URL url = mavenId.getArtifactURL(baseURL);
-            try {
-                url.openStream().close();
-                contentURL = url;
-                break;
-            } catch (IOException e) {
-                LOGGER.debugf("Cannot access input stream for: %s", url);
+        boolean absent = false;
+        CacheEntry cacheEntry = artifactCache != null ? artifactCache.getArtifact(mavenId) : null;
+        if (cacheEntry == null) {
+            ArtifactLookup lookup = findArtifactURL(mavenId);
+            contentURL = lookup.url;
+            absent = lookup.absent;
+            if (contentURL != null && artifactCache != null && !"file".equals(contentURL.getProtocol()) && MavenArtifactCache.isCacheable(mavenId)) {
+                cacheEntry = cacheArtifact(mavenId, contentURL);
+            }
+        }
+
+        // The cached content stays pinned until the resource is built
+        try {
+            return findMavenProviders(mavenId, contentURL, absent, cacheEntry);
+        } finally {
+            if (cacheEntry != null) {
+                artifactCache.releaseArtifact(cacheEntry);
             }
         }
+    }
+
+    private Collection<Capability> findMavenProviders(MavenCoordinates mavenId, URL contentURL, boolean absent, CacheEntry cacheEntry) {
+        Map<String, Object> contentAtts = null;
+        if (cacheEntry != null) {
+            contentURL = cacheEntry.getContentURL();
+            contentAtts = new HashMap<String, Object>();
+            contentAtts.put(ContentNamespace.CONTENT_NAMESPACE, cacheEntry.getDigest());
+            contentAtts.put(ContentNamespace.CAPABILITY_SIZE_ATTRIBUTE, cacheEntry.getSize());
+        }
 
-        if (contentURL == null)
+        if (contentURL == null) {
+            // A base that failed or was skipped may still have the artifact
+            if (absent) {
+                addNegativeCacheEntry(mavenId);
+            }
             return Collections.emptyList();
-        
-        XResourceBuilder<XResource> builder = URLResourceBuilderFactory.create(contentURL, null);
+        }
+
+        XResourceBuilder<XResource> builder = URLResourceBuilderFactory.create(contentURL, contentAtts);
         builder.addIdentityCapability(mavenId);
         XResource resource = builder.getResource();
         LOGGER.debugf("Found maven resource: %s", resource);
@@ -171,6 +383,10 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
         List<Capability> result = new ArrayList<Capability>();
         try {
             resource = getTargetResource(resource);
+            if (cacheEntry != null) {
+                // Keep the cached content while the resource that points to it is in use
+                artifactCache.retainArtifact(cacheEntry, resource);
+            }
             result.add(resource.getIdentityCapability());
         } catch (Exception ex) {
             LOGGER.errorCannotCreateResource(ex, mavenId.toExternalForm());
@@ -179,6 +395,358 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
         return Collections.unmodifiableList(result);
     }
 
+    /**
+     * Get the manifest of a cached artifact from the cache, which avoids opening the jar.
+     * The manifest of a newly cached artifact is stored next to its content.
+     */
+    @Override
+    protected Manifest getResourceManifest(XResource resource) throws IOException {
+        String digest = artifactCache != null ? getCachedDigest(resource) : null;
+        if (digest == null) {
+            return super.getResourceManifest(resource);
+        }
+        Manifest manifest = artifactCache.getManifest(digest);
+        if (manifest == null) {
+            manifest = super.getResourceManifest(resource);
+            if (manifest != null) {
+                artifactCache.putManifest(digest, manifest);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Get the content digest of the given resource, if its content is in the artifact cache
+     */
+    private String getCachedDigest(XResource resource) {
+        File contentFile = getContentFile(resource);
+        if (contentFile == null || !contentFile.getPath().startsWith(artifactCache.getCacheDir().getPath()))
+            return null;
+        List<Capability> caps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
+        Object digest = ((XCapability) caps.get(0)).getAttribute(ContentNamespace.CONTENT_NAMESPACE);
+        return digest instanceof String && !XContentCapability.DEFAULT_DIGEST.equals(digest) ? (String) digest : null;
+    }
+
+    /**
+     * Get the local artifact cache
+     *
+     * @return The cache or null if no cache directory is configured
+     */
+    public MavenArtifactCache getArtifactCache() {
+        return artifactCache;
+    }
+
+    /**
+     * Get the cache of maven metadata that is used to resolve version ranges
+     */
+    public MavenMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Shut down the threads that probe the base URLs and write the artifact cache index.
+     * Lookups that are still running complete, the repository must not be used for new lookups.
+     */
+    public void close() {
+        executor.shutdown();
+        if (artifactCache != null) {
+            artifactCache.flush();
+        }
+    }
+
+    /**
+     * Get the health statistics for every configured base URL, in configured order
+     */
+    public List<MavenMirrorStatistics> getMirrorStatistics() {
+        return mirrorStatistics;
+    }
+
+    /**
+     * Forget that the artifact for the given coordinates could not be found
+     */
+    public void invalidateNegativeCache(MavenCoordinates mavenId) {
+        if (mavenId == null)
+            throw MESSAGES.illegalArgumentNull("mavenId");
+        synchronized (negativeCache) {
+            negativeCache.remove(mavenId.toExternalForm());
+        }
+    }
+
+    /**
+     * Forget all artifacts that could not be found
+     */
+    public void invalidateNegativeCache() {
+        synchronized (negativeCache) {
+            negativeCache.clear();
+        }
+    }
+
+    private boolean isNegativeCached(MavenCoordinates mavenId) {
+        synchronized (negativeCache) {
+            String key = mavenId.toExternalForm();
+            Long expiry = negativeCache.get(key);
+            if (expiry != null && expiry < System.currentTimeMillis()) {
+                negativeCache.remove(key);
+                expiry = null;
+            }
+            return expiry != null;
+        }
+    }
+
+    /**
+     * Remember that the remote bases do not have the given artifact.
+     * Misses of file bases are not remembered, they are checked on every lookup.
+     */
+    private void addNegativeCacheEntry(MavenCoordinates mavenId) {
+        if (negativeCacheTTL > 0 && hasRemoteBase()) {
+            synchronized (negativeCache) {
+                negativeCache.put(mavenId.toExternalForm(), System.currentTimeMillis() + negativeCacheTTL);
+            }
+        }
+    }
+
+    private boolean hasRemoteBase() {
+        for (URL baseURL : baserepos) {
+            if (!"file".equals(baseURL.getProtocol()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the artifact in the file bases only
+     */
+    private URL findFileArtifactURL(MavenCoordinates mavenId) {
+        for (URL baseURL : baserepos) {
+            if ("file".equals(baseURL.getProtocol())) {
+                URL url = mavenId.getArtifactURL(baseURL);
+                if (toFile(url).isFile())
+                    return url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Probe all base URLs concurrently and take the first success in order of mirror health.
+     * Mirrors with an open circuit are skipped. Probes that are still running once the
+     * result is known are cancelled.
+     *
+     * @return The lookup, which is only absent if every base answered that it does not have the artifact
+     */
+    private ArtifactLookup findArtifactURL(MavenCoordinates mavenId) {
+        // Leading file bases are cheap to check and win over any remote base
+        int index = 0;
+        while (index < baserepos.length && "file".equals(baserepos[index].getProtocol())) {
+            URL url = mavenId.getArtifactURL(baserepos[index++]);
+            if (toFile(url).isFile())
+                return new ArtifactLookup(url, false);
+        }
+        boolean absent = true;
+        List<URL> urls = new ArrayList<URL>();
+        List<MavenMirrorStatistics> mirrors = new ArrayList<MavenMirrorStatistics>();
+        List<Future<ProbeResult>> probes = new ArrayList<Future<ProbeResult>>();
+        // A probe is recorded in the mirror statistics once, either by the probe or as abandoned
+        List<AtomicBoolean> recorded = new ArrayList<AtomicBoolean>();
+        long start = System.currentTimeMillis();
+        for (final MavenMirrorStatistics mirror : getProbeOrder(index)) {
+            if (!mirror.allowRequest()) {
+                LOGGER.debugf("Skip failing mirror: %s", mirror);
+                absent = false;
+                continue;
+            }
+            final URL url = mavenId.getArtifactURL(mirror.getBaseURL());
+            final AtomicBoolean probeRecorded = new AtomicBoolean();
+            urls.add(url);
+            mirrors.add(mirror);
+            recorded.add(probeRecorded);
+            probes.add(executor.submit(new Callable<ProbeResult>() {
+                @Override
+                public ProbeResult call() throws IOException {
+                    long probeStart = System.currentTimeMillis();
+                    try {
+                        ProbeResult result = probeArtifact(url);
+                        if (probeRecorded.compareAndSet(false, true)) {
+                            mirror.recordSuccess(System.currentTimeMillis() - probeStart);
+                        }
+                        return result;
+                    } catch (IOException ex) {
+                        if (probeRecorded.compareAndSet(false, true)) {
+                            mirror.recordFailure(System.currentTimeMillis() - probeStart);
+                        }
+                        throw ex;
+                    }
+                }
+            }));
+        }
+        URL result = null;
+        try {
+            for (int i = 0; i < probes.size(); i++) {
+                Future<ProbeResult> probe = probes.get(i);
+                if (result != null) {
+                    if (!probe.isDone()) {
+                        if (recorded.get(i).compareAndSet(false, true)) {
+                            mirrors.get(i).recordAbandoned(System.currentTimeMillis() - start);
+                        }
+                        probe.cancel(true);
+                    }
+                    continue;
+                }
+                try {
+                    ProbeResult probeResult = probe.get();
+                    if (probeResult == ProbeResult.FOUND) {
+                        result = urls.get(i);
+                    } else if (probeResult == ProbeResult.NOT_FOUND) {
+                        LOGGER.debugf("Artifact not found: %s", urls.get(i));
+                    } else {
+                        LOGGER.debugf("Artifact status unknown: %s", urls.get(i));
+                        absent = false;
+                    }
+                } catch (ExecutionException ex) {
+                    LOGGER.debugf(ex.getCause(), "Cannot access: %s", urls.get(i));
+                    absent = false;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            // The interrupted probes say nothing about the health of their mirrors
+            for (int i = 0; i < probes.size(); i++) {
+                recorded.get(i).set(true);
+                probes.get(i).cancel(true);
+            }
+            return new ArtifactLookup(null, false);
+        }
+        return new ArtifactLookup(result, result == null && absent);
+    }
+
+    /**
+     * Get the mirrors from the given index sorted by their score.
+     * The sort is stable, so mirrors with equal scores keep their configured order.
+     */
+    private List<MavenMirrorStatistics> getProbeOrder(int fromIndex) {
+        List<MavenMirrorStatistics> result = new ArrayList<MavenMirrorStatistics>(mirrorStatistics.subList(fromIndex, baserepos.length));
+        final Map<MavenMirrorStatistics, Double> scores = new IdentityHashMap<MavenMirrorStatistics, Double>();
+        for (MavenMirrorStatistics mirror : result) {
+            scores.put(mirror, mirror.getScore(readTimeout));
+        }
+        Collections.sort(result, new Comparator<MavenMirrorStatistics>() {
+            @Override
+            public int compare(MavenMirrorStatistics o1, MavenMirrorStatistics o2) {
+                return Double.compare(scores.get(o1), scores.get(o2));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Check whether the artifact exists without downloading it.
+     *
+     * File URLs are checked on the file system. HTTP URLs are checked with a HEAD request.
+     * Response streams are always consumed so that the underlying connection can be reused.
+     *
+     * @return Whether the base has the artifact, or {@link ProbeResult#UNKNOWN} if its answer does not tell
+     * @throws IOException if the base cannot be accessed
+     */
+    private ProbeResult probeArtifact(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            return toFile(url).isFile() ? ProbeResult.FOUND : ProbeResult.NOT_FOUND;
+        }
+        URLConnection connection = openConnection(url);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod("HEAD");
+            int status = httpConnection.getResponseCode();
+            consumeResponse(httpConnection);
+            if (status == HttpURLConnection.HTTP_BAD_METHOD || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                // HEAD is not supported, fall back to a GET that is dropped after the status line
+                httpConnection = (HttpURLConnection) openConnection(url);
+                status = httpConnection.getResponseCode();
+                httpConnection.disconnect();
+            }
+            if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+                throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+            if (status == HttpURLConnection.HTTP_OK)
+                return ProbeResult.FOUND;
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE)
+                return ProbeResult.NOT_FOUND;
+            return ProbeResult.UNKNOWN;
+        }
+        try {
+            connection.getInputStream().close();
+            return ProbeResult.FOUND;
+        } catch (FileNotFoundException ex) {
+            return ProbeResult.NOT_FOUND;
+        }
+    }
+
+    private CacheEntry cacheArtifact(MavenCoordinates mavenId, URL url) {
+        try {
+            return artifactCache.addArtifact(mavenId, openConnection(url).getInputStream());
+        } catch (IOException ex) {
+            LOGGER.debugf(ex, "Cannot cache maven artifact: %s", url);
+            return null;
+        }
+    }
+
+    private URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        return connection;
+    }
+
+    private void consumeResponse(HttpURLConnection connection) {
+        InputStream input = connection.getErrorStream();
+        try {
+            if (input == null) {
+                input = connection.getInputStream();
+            }
+            byte[] buffer = new byte[1024];
+            while (input.read(buffer) >= 0) {
+                // discard
+            }
+        } catch (IOException ex) {
+            // ignore
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static ConfigurationPropertyProvider getSystemPropertyProvider() {
+        return new ConfigurationPropertyProvider() {
+            @Override
+            public String getProperty(String key, String defaultValue) {
+                return SecurityActions.getSystemProperty(key, defaultValue);
+            }
+        };
+    }
+
+    private static int getIntegerProperty(ConfigurationPropertyProvider provider, String key, int defaultValue) {
+        String value = provider.getProperty(key, null);
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+        } catch (NumberFormatException ex) {
+            LOGGER.debugf("Invalid value for %s: %s", key, value);
+            return defaultValue;
+        }
+    }
+
+    private static long getLongProperty(ConfigurationPropertyProvider provider, String key, long defaultValue) {
+        String value = provider.getProperty(key, null);
+        try {
+            return value != null ? Long.parseLong(value.trim()) : defaultValue;
+        } catch (NumberFormatException ex) {
+            LOGGER.debugf("Invalid value for %s: %s", key, value);
+            return defaultValue;
+        }
+    }
+
     private static URL getBaseURL(String urlspec) {
         try {
             return new URL(urlspec);
@@ -186,4 +754,23 @@ public class MavenIdentityRepository extends AbstractRepository implements XRepo
             throw MESSAGES.invalidRepositoryBase(urlspec);
         }
     }
+
+    /** The answer of a base URL to an artifact probe */
+    private enum ProbeResult {
+        FOUND, NOT_FOUND, UNKNOWN
+    }
+
+    /**
+     * The outcome of an artifact lookup over all base URLs.
+     * If no URL was found, the artifact is only absent if every base answered that it does not have it.
+     */
+    private static final class ArtifactLookup {
+        private final URL url;
+        private final boolean absent;
+
+        ArtifactLookup(URL url, boolean absent) {
+            this.url = url;
+            this.absent = absent;
+        }
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A cache of the versions that a maven repository lists for a groupId/artifactId.
+ *
+ * Remote repositories are asked for their <code>maven-metadata.xml</code>. The parsed
+ * versions are cached for a time to live, after which the metadata is revalidated with
+ * a conditional request using If-Modified-Since and If-None-Match. Local file repositories
+ * are listed directly.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class MavenMetadataCache {
+
+    public static final String METADATA_NAME = "maven-metadata.xml";
+
+    /** The maximum number of cached metadata entries */
+    public static final int MAX_ENTRIES = 1000;
+
+    // Metadata comes from remote hosts, so DTDs and external entities are not resolved
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final long ttl;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Map<String, MetadataEntry> entries;
+
+    private static final class MetadataEntry {
+        private final List<String> versions;
+        private final long lastModified;
+        private final String etag;
+        private final long expires;
+
+        MetadataEntry(List<String> versions, long lastModified, String etag, long expires) {
+            this.versions = versions;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.expires = expires;
+        }
+    }
+
+    public MavenMetadataCache(long ttl, int connectTimeout, int readTimeout) {
+        this.ttl = ttl;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.entries = new LinkedHashMap<String, MetadataEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MetadataEntry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Get the versions that the given base lists for the given groupId/artifactId
+     *
+     * @return The list of versions, which is empty if the base does not know the artifact
+     * @throws IOException if the base cannot be accessed
+     */
+    public List<String> getVersions(URL baseURL, String groupId, String artifactId) throws IOException {
+        String path = groupId.replace('.', '/') + "/" + artifactId + "/";
+        if ("file".equals(baseURL.getProtocol())) {
+            return getLocalVersions(new File(AbstractRepository.toFile(baseURL), path));
+        }
+
+        String key = baseURL.toExternalForm() + "|" + groupId + ":" + artifactId;
+        MetadataEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.expires > now) {
+            return entry.versions;
+        }
+
+        String basespec = baseURL.toExternalForm();
+        URL metadataURL = new URL(basespec + (basespec.endsWith("/") ? "" : "/") + path + METADATA_NAME);
+        entry = fetchMetadata(metadataURL, entry, now);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry.versions;
+    }
+
+    /**
+     * Drop all cached metadata
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private MetadataEntry fetchMetadata(URL metadataURL, MetadataEntry previous, long now) throws IOException {
+        URLConnection connection = metadataURL.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            if (previous != null) {
+                if (previous.lastModified > 0)
+                    httpConnection.setIfModifiedSince(previous.lastModified);
+                if (previous.etag != null)
+                    httpConnection.setRequestProperty("If-None-Match", previous.etag);
+            }
+            int status = httpConnection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                closeErrorStream(httpConnection);
+                return new MetadataEntry(previous.versions, previous.lastModified, previous.etag, now + ttl);
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                closeErrorStream(httpConnection);
+                return new MetadataEntry(Collections.<String> emptyList(), 0, null, now + ttl);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                closeErrorStream(httpConnection);
+                throw new IOException("Server returned HTTP response code: " + status + " for URL: " + metadataURL);
+            }
+        }
+        InputStream input;
+        try {
+            input = connection.getInputStream();
+        } catch (FileNotFoundException ex) {
+            return new MetadataEntry(Collections.<String> emptyList(), 0, null, now + ttl);
+        }
+        try {
+            List<String> versions = parseVersions(input);
+            return new MetadataEntry(versions, connection.getLastModified(), connection.getHeaderField("ETag"), now + ttl);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private List<String> parseVersions(InputStream input) throws IOException {
+        List<String> versions = new ArrayList<String>();
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+            try {
+                boolean inVersions = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if ("versions".equals(name)) {
+                            inVersions = true;
+                        } else if (inVersions && "version".equals(name)) {
+                            versions.add(reader.getElementText().trim());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "versions".equals(reader.getLocalName())) {
+                        inVersions = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Cannot parse maven metadata", ex);
+        }
+        return Collections.unmodifiableList(versions);
+    }
+
+    private List<String> getLocalVersions(File artifactDir) {
+        List<String> versions = new ArrayList<String>();
+        File[] files = artifactDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    versions.add(file.getName());
+                }
+            }
+        }
+        return Collections.unmodifiableList(versions);
+    }
+
+    private void closeErrorStream(HttpURLConnection connection) {
+        InputStream input = connection.getErrorStream();
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+}
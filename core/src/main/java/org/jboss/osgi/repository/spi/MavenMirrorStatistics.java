@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.net.URL;
+
+/**
+ * Health statistics of a remote maven repository base URL.
+ *
+ * Latency and error rate are exponentially weighted moving averages, so that
+ * recent probes count more than old ones. A mirror that fails repeatedly is
+ * skipped for a cooldown period, after which a single trial probe decides
+ * whether it is used again.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class MavenMirrorStatistics {
+
+    /** The weight of a new sample in the moving averages */
+    static final double SMOOTHING_FACTOR = 0.3;
+
+    private final URL baseURL;
+    private final int failureThreshold;
+    private final long cooldown;
+    private double averageLatency;
+    private double errorRate;
+    private long requestCount;
+    private long errorCount;
+    private int consecutiveErrors;
+    private long circuitOpenUntil;
+
+    MavenMirrorStatistics(URL baseURL, int failureThreshold, long cooldown) {
+        this.baseURL = baseURL;
+        this.failureThreshold = failureThreshold;
+        this.cooldown = cooldown;
+    }
+
+    public URL getBaseURL() {
+        return baseURL;
+    }
+
+    /** Get the moving average of the probe latency in milliseconds */
+    public synchronized double getAverageLatency() {
+        return averageLatency;
+    }
+
+    /** Get the moving average of failed probes, between 0 and 1 */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized int getConsecutiveErrors() {
+        return consecutiveErrors;
+    }
+
+    /** True if the mirror is currently skipped because of repeated failures */
+    public synchronized boolean isCircuitOpen() {
+        return circuitOpenUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * Get the score by which mirrors are ordered, lower is better.
+     * Mirrors without samples score zero and keep their configured order.
+     */
+    synchronized double getScore(long penalty) {
+        return averageLatency + errorRate * penalty;
+    }
+
+    /**
+     * True if the mirror should be probed. Once the cooldown has expired a
+     * single trial probe is allowed and the circuit opens again until it completes.
+     */
+    synchronized boolean allowRequest() {
+        if (consecutiveErrors < failureThreshold)
+            return true;
+        long now = System.currentTimeMillis();
+        if (circuitOpenUntil > now)
+            return false;
+        circuitOpenUntil = now + cooldown;
+        return true;
+    }
+
+    /** Record a probe that reached the mirror, whether or not the artifact was found */
+    synchronized void recordSuccess(long latency) {
+        addSample(latency, 0);
+        consecutiveErrors = 0;
+        circuitOpenUntil = 0;
+    }
+
+    /** Record a probe that could not access the mirror */
+    synchronized void recordFailure(long latency) {
+        addSample(latency, 1);
+        errorCount++;
+        if (++consecutiveErrors >= failureThreshold) {
+            circuitOpenUntil = System.currentTimeMillis() + cooldown;
+        }
+    }
+
+    /** Record the time spent on a probe that was abandoned before it completed */
+    synchronized void recordAbandoned(long latency) {
+        averageLatency = requestCount > 0 ? average(averageLatency, latency) : latency;
+    }
+
+    private void addSample(long latency, int error) {
+        if (requestCount++ == 0) {
+            averageLatency = latency;
+            errorRate = error;
+        } else {
+            averageLatency = average(averageLatency, latency);
+            errorRate = average(errorRate, error);
+        }
+    }
+
+    private static double average(double average, double sample) {
+        return average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MavenMirrorStatistics[" + baseURL + ",latency=" + Math.round(averageLatency) + "ms,errors=" + errorRate + ",circuitOpen=" + isCircuitOpen() + "]";
+    }
+}
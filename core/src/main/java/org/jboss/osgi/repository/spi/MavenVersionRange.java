@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A maven version range like <code>[1.0,2.0)</code>, <code>[1.0,)</code>,
+ * <code>[1.0]</code> or a union of ranges like <code>[1.0,1.2),[1.5,)</code>.
+ *
+ * Maven versions are compared like maven does, see {@link MavenComparableVersion}.
+ * A qualifier such as <code>alpha-1</code> or <code>SNAPSHOT</code> sorts before the release,
+ * so <code>[1.0,2.0)</code> includes <code>2.0-SNAPSHOT</code> but not <code>1.0-alpha-1</code>.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public final class MavenVersionRange {
+
+    private final String rangespec;
+    private final List<Restriction> restrictions;
+
+    private static final class Restriction {
+        private final MavenComparableVersion lower;
+        private final boolean lowerInclusive;
+        private final MavenComparableVersion upper;
+        private final boolean upperInclusive;
+
+        Restriction(MavenComparableVersion lower, boolean lowerInclusive, MavenComparableVersion upper, boolean upperInclusive) {
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        boolean includes(MavenComparableVersion version) {
+            if (lower != null) {
+                int comp = version.compareTo(lower);
+                if (comp < 0 || (comp == 0 && !lowerInclusive))
+                    return false;
+            }
+            if (upper != null) {
+                int comp = version.compareTo(upper);
+                if (comp > 0 || (comp == 0 && !upperInclusive))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private MavenVersionRange(String rangespec, List<Restriction> restrictions) {
+        this.rangespec = rangespec;
+        this.restrictions = restrictions;
+    }
+
+    /**
+     * True if the given maven version is a range rather than a single version
+     */
+    public static boolean isVersionRange(String version) {
+        return version != null && (version.startsWith("[") || version.startsWith("("));
+    }
+
+    /**
+     * Parse a maven version range
+     * @throws IllegalArgumentException if the given string is not a valid range
+     */
+    public static MavenVersionRange parse(String rangespec) {
+        if (rangespec == null)
+            throw new IllegalArgumentException("Null rangespec");
+
+        List<Restriction> restrictions = new ArrayList<Restriction>();
+        String remainder = rangespec.trim();
+        while (remainder.length() > 0) {
+            if (remainder.startsWith(",")) {
+                remainder = remainder.substring(1).trim();
+                continue;
+            }
+            char start = remainder.charAt(0);
+            int end = indexOfRangeEnd(remainder);
+            if ((start != '[' && start != '(') || end < 0)
+                throw new IllegalArgumentException("Invalid version range: " + rangespec);
+            restrictions.add(parseRestriction(rangespec, remainder.substring(0, end + 1)));
+            remainder = remainder.substring(end + 1).trim();
+        }
+        if (restrictions.isEmpty())
+            throw new IllegalArgumentException("Invalid version range: " + rangespec);
+        return new MavenVersionRange(rangespec, Collections.unmodifiableList(restrictions));
+    }
+
+    private static int indexOfRangeEnd(String str) {
+        for (int i = 1; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == ']' || ch == ')')
+                return i;
+        }
+        return -1;
+    }
+
+    private static Restriction parseRestriction(String rangespec, String spec) {
+        boolean lowerInclusive = spec.charAt(0) == '[';
+        boolean upperInclusive = spec.charAt(spec.length() - 1) == ']';
+        String body = spec.substring(1, spec.length() - 1).trim();
+        int index = body.indexOf(',');
+        if (index < 0) {
+            // An exact version [1.0]
+            if (!lowerInclusive || !upperInclusive || body.length() == 0)
+                throw new IllegalArgumentException("Invalid version range: " + rangespec);
+            MavenComparableVersion version = new MavenComparableVersion(body);
+            return new Restriction(version, true, version, true);
+        }
+        String lowerspec = body.substring(0, index).trim();
+        String upperspec = body.substring(index + 1).trim();
+        MavenComparableVersion lower = lowerspec.length() > 0 ? new MavenComparableVersion(lowerspec) : null;
+        MavenComparableVersion upper = upperspec.length() > 0 ? new MavenComparableVersion(upperspec) : null;
+        if (lower != null && upper != null && lower.compareTo(upper) > 0)
+            throw new IllegalArgumentException("Invalid version range: " + rangespec);
+        return new Restriction(lower, lowerInclusive, upper, upperInclusive);
+    }
+
+    /**
+     * True if the given maven version is included in this range
+     */
+    public boolean includes(String version) {
+        MavenComparableVersion comparable = new MavenComparableVersion(version);
+        for (Restriction restriction : restrictions) {
+            if (restriction.includes(comparable))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return rangespec;
+    }
+}
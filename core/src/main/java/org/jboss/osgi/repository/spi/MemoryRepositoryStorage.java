@@ -23,22 +23,34 @@ import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
 import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
 import static org.osgi.framework.namespace.IdentityNamespace.IDENTITY_NAMESPACE;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.jboss.osgi.repository.InternPool;
+import org.jboss.osgi.repository.RepositoryChanges;
+import org.jboss.osgi.repository.RepositoryQueryResult;
 import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.RepositoryStorageException;
 import org.jboss.osgi.repository.RepositoryStorageFactory;
+import org.jboss.osgi.repository.RepositoryStorageListener;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.XRepositoryStorage;
 import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XIdentityCapability;
 import org.jboss.osgi.resolver.XRequirement;
@@ -47,19 +59,38 @@ import org.jboss.osgi.resolver.spi.AbstractRequirement;
 import org.osgi.framework.Filter;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
-import org.osgi.resource.Resource;
 
 /**
  * A {@link RepositoryStorage} that maintains its state in local memory
  *
+ * The capabilities are held in an immutable index that is replaced on every modification.
+ * The values of a namespace are held in a {@link PersistentMap}, so a modification only copies
+ * the capability sets it touches and the trie nodes above them. Queries and snapshots
+ * use the current index without locking.
+ *
+ * The most recent changes are kept in a bounded log, from which consumers
+ * can catch up with the storage incrementally. The increment of the last change
+ * is kept per namespace, so that conditional queries can be answered without matching.
+ *
  * @author thomas.diesler@jboss.com
  * @since 16-Jan-2012
  */
-public class MemoryRepositoryStorage implements RepositoryStorage {
+public class MemoryRepositoryStorage implements XRepositoryStorage {
 
     private final XRepository repository;
     private final AtomicLong increment = new AtomicLong();
-    private final Map<String, Map<String, Set<XCapability>>> capabilityCache = new HashMap<String, Map<String, Set<XCapability>>>();
+    private final InternPool internPool = new InternPool();
+    private final Map<String, BloomFilter> namespaceFilters = new HashMap<String, BloomFilter>();
+    private volatile CapabilityIndex capabilityIndex = new CapabilityIndex(0, new HashMap<String, PersistentMap<String, Set<XCapability>>>(), new HashMap<String, Long>(), 0);
+    private final Deque<StorageChange> changeLog = new ArrayDeque<StorageChange>();
+    private long changeLogStart;
+    private final List<RepositoryStorageListener> listeners = new CopyOnWriteArrayList<RepositoryStorageListener>();
+
+    /** The number of values per namespace for which the namespace filters keep a 1% false positive rate */
+    public static final int NAMESPACE_FILTER_CAPACITY = 10000;
+
+    /** The number of changes that are kept in the change log. A batch of resources counts as one change. */
+    public static final int CHANGE_LOG_SIZE = 1000;
 
     public static final class Factory implements RepositoryStorageFactory {
         @Override
@@ -78,6 +109,27 @@ public class MemoryRepositoryStorage implements RepositoryStorage {
         return increment;
     }
 
+    /**
+     * Set the increment of this storage after its content was restored
+     */
+    protected synchronized void restoreResourceIndex(long value) {
+        increment.set(value);
+        // Every namespace counts as modified at the restored increment
+        capabilityIndex = new CapabilityIndex(value, capabilityIndex.namespaces, new HashMap<String, Long>(), value);
+        synchronized (changeLog) {
+            // The changes that led to the restored content are not known
+            changeLog.clear();
+            changeLogStart = value;
+        }
+    }
+
+    /**
+     * Get the pool of canonical attribute values shared by this storage
+     */
+    protected InternPool getInternPool() {
+        return internPool;
+    }
+
     @Override
     public XRepository getRepository() {
         return repository;
@@ -85,58 +137,37 @@ public class MemoryRepositoryStorage implements RepositoryStorage {
 
     @Override
     public RepositoryReader getRepositoryReader() {
-        synchronized (capabilityCache) {
-            return new RepositoryReader() {
-                private final Iterator<XResource> iterator;
-                {
-                    synchronized (capabilityCache) {
-                        final Set<XCapability> icaps = getCachedCapabilities(IDENTITY_NAMESPACE, null);
-                        final Iterator<XCapability> capit = icaps.iterator();
-                        iterator = new Iterator<XResource>() {
-                            @Override
-                            public boolean hasNext() {
-                                return capit.hasNext();
-                            }
-
-                            @Override
-                            public XResource next() {
-                                return capit.next().getResource();
-                            }
-
-                            @Override
-                            public void remove() {
-                                throw new UnsupportedOperationException();
-                            }
-                        };
-                    }
-                }
+        return getRepositoryReader(repository, capabilityIndex);
+    }
 
-                @Override
-                public Map<String, String> getRepositoryAttributes() {
-                    HashMap<String, String> attributes = new HashMap<String, String>();
-                    attributes.put("name", getRepository().getName());
-                    attributes.put("increment", new Long(increment.get()).toString());
-                    return Collections.unmodifiableMap(attributes);
-                }
+    @Override
+    public Collection<Capability> findProviders(Requirement req) {
+        Set<Capability> result = findProviders(capabilityIndex, req);
+        LOGGER.tracef("Find cached providers: %s => %s", req, result);
+        return result;
+    }
 
-                @Override
-                public XResource nextResource() {
-                    return iterator.hasNext() ? iterator.next() : null;
-                }
+    @Override
+    public RepositoryQueryResult findProviders(Collection<? extends Requirement> reqs, long increment) {
+        return findProviders(capabilityIndex, reqs, increment);
+    }
 
-                @Override
-                public void close() {
-                    // do nothing
-                }
-            };
-        }
+    @Override
+    public long getNamespaceIncrement(String namespace) {
+        if (namespace == null)
+            throw MESSAGES.illegalArgumentNull("namespace");
+        return capabilityIndex.getNamespaceIncrement(namespace);
     }
 
+    /**
+     * Iterate over the current index. The iterator does not see later modifications.
+     *
+     * The order of the matches is only stable within one index. To page through the matches
+     * with several calls, iterate a {@link #snapshot()} so that every page sees the same index.
+     */
     @Override
-    public synchronized Collection<Capability> findProviders(Requirement req) {
-        Set<Capability> result = findCachedProviders(req);
-        LOGGER.tracef("Find cached providers: %s => %s", req, result);
-        return result;
+    public Iterator<Capability> iterateProviders(Requirement req, int offset, int limit) {
+        return new ProviderIterator(capabilityIndex, req, offset, limit);
     }
 
     @Override
@@ -144,51 +175,67 @@ public class MemoryRepositoryStorage implements RepositoryStorage {
         if (res == null)
             throw MESSAGES.illegalArgumentNull("resource");
 
+        IndexBuilder builder = new IndexBuilder(capabilityIndex);
+        addResource(builder, res);
+        publish(builder, new StorageChange(increment.incrementAndGet(), Collections.singletonList(res), true));
+        return res;
+    }
+
+    @Override
+    public synchronized Collection<XResource> addResources(Collection<? extends XResource> resources) throws RepositoryStorageException {
+        if (resources == null)
+            throw MESSAGES.illegalArgumentNull("resources");
+
+        // Publish all resources with a single index, increment and change.
+        // If one resource cannot be added, the builder is dropped and nothing is published.
+        List<XResource> result = new ArrayList<XResource>();
+        IndexBuilder builder = new IndexBuilder(capabilityIndex);
+        for (XResource res : resources) {
+            if (res == null)
+                throw MESSAGES.illegalArgumentNull("resource");
+            if (getResource(builder.namespaces, res.getIdentityCapability()) == null) {
+                result.add(addResource(builder, res));
+            }
+        }
+        if (!result.isEmpty()) {
+            publish(builder, new StorageChange(increment.incrementAndGet(), new ArrayList<XResource>(result), true));
+        }
+        return result;
+    }
+
+    private XResource addResource(IndexBuilder builder, XResource res) {
         XIdentityCapability icap = res.getIdentityCapability();
         if (XResource.MAVEN_IDENTITY_NAMESPACE.equals(icap.getNamespace()))
             throw MESSAGES.cannotAddMavenResourceToStorage(null, res);
 
-        synchronized (capabilityCache) {
-            Set<XCapability> icaps = getCachedCapabilities(icap.getNamespace(), icap.getName());
-            for (XCapability aux : icaps) {
-                XIdentityCapability iaux = aux.adapt(XIdentityCapability.class);
-                if (icap.getAttributes().equals(iaux.getAttributes())) {
-                    throw MESSAGES.resourceAlreadyExists(res);
-                }
+        Set<XCapability> icaps = getCapabilities(builder.namespaces, icap.getNamespace(), icap.getName());
+        for (XCapability aux : icaps) {
+            XIdentityCapability iaux = aux.adapt(XIdentityCapability.class);
+            if (icap.getAttributes().equals(iaux.getAttributes())) {
+                throw MESSAGES.resourceAlreadyExists(res);
             }
+        }
+        for (Capability cap : res.getCapabilities(null)) {
+            addCachedCapability(builder, (XCapability) cap);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debugf("Resource added: %s", res);
             for (Capability cap : res.getCapabilities(null)) {
-                addCachedCapability((XCapability) cap);
+                LOGGER.debugf(" %s", cap);
             }
-            increment.incrementAndGet();
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debugf("Resource added: %s", res);
-                for (Capability cap : res.getCapabilities(null)) {
-                    LOGGER.debugf(" %s", cap);
-                }
-                for (Requirement req : res.getRequirements(null)) {
-                    LOGGER.debugf(" %s", req);
-                }
+            for (Requirement req : res.getRequirements(null)) {
+                LOGGER.debugf(" %s", req);
             }
         }
         return res;
     }
 
     @Override
-    public synchronized XResource getResource(XIdentityCapability icap) {
+    public XResource getResource(XIdentityCapability icap) {
         if (icap == null)
             throw MESSAGES.illegalArgumentNull("icap");
 
-        Collection<XIdentityCapability> result = new ArrayList<XIdentityCapability>();
-        synchronized (capabilityCache) {
-            Set<XCapability> icaps = getCachedCapabilities(icap.getNamespace(), icap.getName());
-            for (XCapability aux : icaps) {
-                XIdentityCapability iaux = aux.adapt(XIdentityCapability.class);
-                if (icap.getAttributes().equals(iaux.getAttributes())) {
-                    result.add(iaux);
-                }
-            }
-        }
-        return result.size() == 1 ? result.iterator().next().getResource() : null;
+        return getResource(capabilityIndex.namespaces, icap);
     }
 
     @Override
@@ -197,80 +244,251 @@ public class MemoryRepositoryStorage implements RepositoryStorage {
             throw MESSAGES.illegalArgumentNull("resource");
 
         boolean found = false;
-        synchronized (capabilityCache) {
-            for (Capability cap : res.getCapabilities(null)) {
-                XCapability xcap = (XCapability) cap;
-                String namespace = cap.getNamespace();
-                String nsvalue = (String) xcap.getAttribute(namespace);
-                Iterator<XCapability> capit = getCachedCapabilities(namespace, nsvalue).iterator();
-                while (capit.hasNext()) {
-                    Resource auxres = capit.next().getResource();
-                    if (res == auxres) {
-                        capit.remove();
-                        found = true;
-                    }
+        IndexBuilder builder = new IndexBuilder(capabilityIndex);
+        for (Capability cap : res.getCapabilities(null)) {
+            XCapability xcap = (XCapability) cap;
+            String namespace = cap.getNamespace();
+            String nsvalue = (String) xcap.getAttribute(namespace);
+            if (!containsResource(getCapabilities(builder.namespaces, namespace, nsvalue), res))
+                continue;
+
+            Set<XCapability> caps = builder.getWritableCapabilities(namespace, nsvalue);
+            Iterator<XCapability> capit = caps.iterator();
+            while (capit.hasNext()) {
+                if (res == capit.next().getResource()) {
+                    capit.remove();
+                    found = true;
                 }
             }
-            LOGGER.debugf("Resource removed: %s", res);
+            if (caps.isEmpty()) {
+                builder.removeCapabilities(namespace, nsvalue);
+            }
         }
+        if (found) {
+            publish(builder, new StorageChange(increment.incrementAndGet(), Collections.singletonList(res), false));
+        }
+        LOGGER.debugf("Resource removed: %s", res);
         return found;
     }
 
-    private Set<Capability> findCachedProviders(Requirement req) {
-        synchronized (capabilityCache) {
-            Set<Capability> result = new HashSet<Capability>();
-            Set<XCapability> caps = getCachedCapabilities(req.getNamespace(), null);
-            for (XCapability cap : caps) {
-                if (matches(req, cap))
-                    result.add(cap);
+    /**
+     * Get a read-only view of the current index. Creating and querying the snapshot does not lock this storage.
+     */
+    @Override
+    public XRepositoryStorage snapshot() {
+        return new Snapshot(this, capabilityIndex);
+    }
+
+    @Override
+    public RepositoryChanges getChangesSince(long increment) {
+        return getChanges(increment, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void addStorageListener(RepositoryStorageListener listener) {
+        if (listener == null)
+            throw MESSAGES.illegalArgumentNull("listener");
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeStorageListener(RepositoryStorageListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Publish the next index, then log the change and notify the listeners while still holding the write lock
+    private void publish(IndexBuilder builder, StorageChange change) {
+        capabilityIndex = builder.build(change.increment);
+        synchronized (changeLog) {
+            changeLog.addLast(change);
+            if (changeLog.size() > CHANGE_LOG_SIZE) {
+                changeLogStart = changeLog.removeFirst().increment;
+            }
+        }
+        if (!listeners.isEmpty()) {
+            RepositoryChanges event = getRepositoryChanges(change.increment - 1, change.increment, Collections.singletonList(change));
+            for (RepositoryStorageListener listener : listeners) {
+                try {
+                    listener.storageChanged(event);
+                } catch (RuntimeException ex) {
+                    LOGGER.errorCannotNotifyStorageListener(ex, listener);
+                }
             }
-            return result;
         }
     }
 
-    private void addCachedCapability(XCapability cap) {
-        synchronized (capabilityCache) {
-            String namespace = cap.getNamespace();
-            Map<String, Set<XCapability>> capmap = capabilityCache.get(namespace);
-            if (capmap == null) {
-                capmap = new HashMap<String, Set<XCapability>>();
-                capabilityCache.put(namespace, capmap);
+    private RepositoryChanges getChanges(long fromIncrement, long maxIncrement) {
+        synchronized (changeLog) {
+            long lastIncrement = changeLog.isEmpty() ? changeLogStart : changeLog.getLast().increment;
+            long toIncrement = Math.min(maxIncrement, lastIncrement);
+            if (fromIncrement < changeLogStart || fromIncrement > toIncrement) {
+                LOGGER.debugf("Changes since %d require a resync", fromIncrement);
+                return RepositoryChanges.resync(fromIncrement, toIncrement);
             }
-            String nsvalue = (String) cap.getAttribute(namespace);
-            Set<XCapability> capset = capmap.get(nsvalue);
-            if (capset == null) {
-                capset = new HashSet<XCapability>();
-                capmap.put(nsvalue, capset);
+            List<StorageChange> changes = new ArrayList<StorageChange>();
+            for (StorageChange change : changeLog) {
+                if (change.increment > fromIncrement && change.increment <= toIncrement) {
+                    changes.add(change);
+                }
             }
-            capset.add(cap);
+            return getRepositoryChanges(fromIncrement, toIncrement, changes);
         }
     }
 
-    private Set<XCapability> getCachedCapabilities(String namespace, String nsvalue) {
-        synchronized (capabilityCache) {
-            Map<String, Set<XCapability>> caps = capabilityCache.get(namespace);
-            if (caps == null) {
-                caps = new HashMap<String, Set<XCapability>>();
-                capabilityCache.put(namespace, caps);
+    // A resource that was added and removed again within the range is not reported
+    private static RepositoryChanges getRepositoryChanges(long fromIncrement, long toIncrement, List<StorageChange> changes) {
+        List<XResource> added = new ArrayList<XResource>();
+        List<XResource> removed = new ArrayList<XResource>();
+        for (StorageChange change : changes) {
+            for (XResource res : change.resources) {
+                if (change.added) {
+                    added.add(res);
+                } else if (!removeIdentical(added, res)) {
+                    removed.add(res);
+                }
             }
-            Set<XCapability> result;
-            if (nsvalue != null) {
-                result = caps.get(nsvalue);
-                if (result == null) {
-                    result = new HashSet<XCapability>();
+        }
+        return new RepositoryChanges(fromIncrement, toIncrement, added, removed);
+    }
+
+    private static boolean removeIdentical(List<XResource> resources, XResource res) {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            if (resources.get(i) == res) {
+                resources.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get a filter of the namespace values of all capabilities that were added in the given namespace.
+     * The returned filter is live, it sees values that are added later.
+     */
+    public BloomFilter getNamespaceValueFilter(String namespace) {
+        synchronized (namespaceFilters) {
+            BloomFilter filter = namespaceFilters.get(namespace);
+            if (filter == null) {
+                filter = new BloomFilter(NAMESPACE_FILTER_CAPACITY, 0.01);
+                namespaceFilters.put(namespace, filter);
+            }
+            return filter;
+        }
+    }
+
+    private void addCachedCapability(IndexBuilder builder, XCapability cap) {
+        String namespace = internPool.intern(cap.getNamespace());
+        String nsvalue = internPool.intern((String) cap.getAttribute(namespace));
+        builder.getWritableCapabilities(namespace, nsvalue).add(cap);
+        if (nsvalue != null) {
+            getNamespaceValueFilter(namespace).add(nsvalue);
+        }
+    }
+
+    private static boolean containsResource(Set<XCapability> caps, XResource res) {
+        for (XCapability cap : caps) {
+            if (res == cap.getResource())
+                return true;
+        }
+        return false;
+    }
+
+    private static XResource getResource(Map<String, PersistentMap<String, Set<XCapability>>> namespaces, XIdentityCapability icap) {
+        Collection<XIdentityCapability> result = new ArrayList<XIdentityCapability>();
+        for (XCapability aux : getCapabilities(namespaces, icap.getNamespace(), icap.getName())) {
+            XIdentityCapability iaux = aux.adapt(XIdentityCapability.class);
+            if (icap.getAttributes().equals(iaux.getAttributes())) {
+                result.add(iaux);
+            }
+        }
+        return result.size() == 1 ? result.iterator().next().getResource() : null;
+    }
+
+    // A filter that admits a single namespace value only needs the capabilities with that value
+    private static Set<Capability> findProviders(CapabilityIndex index, Requirement req) {
+        Set<Capability> result = new HashSet<Capability>();
+        String nsvalue = AbstractRepository.getFilterNamespaceValue(req);
+        if (nsvalue != null) {
+            for (XCapability cap : getCapabilities(index.namespaces, req.getNamespace(), nsvalue)) {
+                if (matches(req, cap))
+                    result.add(cap);
+            }
+            return result;
+        }
+        PersistentMap<String, Set<XCapability>> values = index.namespaces.get(req.getNamespace());
+        if (values != null) {
+            for (Set<XCapability> caps : values) {
+                for (XCapability cap : caps) {
+                    if (matches(req, cap))
+                        result.add(cap);
                 }
-            } else {
-                Set<XCapability> allcaps = new HashSet<XCapability>();
-                for (Set<XCapability> set : caps.values()) {
-                    allcaps.addAll(set);
+            }
+        }
+        return result;
+    }
+
+    // Answer from a single index, so that the result and its increment are consistent
+    private static RepositoryQueryResult findProviders(CapabilityIndex index, Collection<? extends Requirement> reqs, long increment) {
+        if (reqs == null)
+            throw MESSAGES.illegalArgumentNull("reqs");
+
+        boolean modified = increment < 0;
+        Iterator<? extends Requirement> iterator = reqs.iterator();
+        while (!modified && iterator.hasNext()) {
+            modified = index.getNamespaceIncrement(iterator.next().getNamespace()) > increment;
+        }
+        if (!modified) {
+            LOGGER.tracef("Providers not modified since %d: %s", increment, reqs);
+            return RepositoryQueryResult.notModified(index.increment);
+        }
+
+        Map<Requirement, Collection<Capability>> providers = new LinkedHashMap<Requirement, Collection<Capability>>();
+        for (Requirement req : reqs) {
+            providers.put(req, findProviders(index, req));
+        }
+        return new RepositoryQueryResult(index.increment, providers);
+    }
+
+    private static RepositoryReader getRepositoryReader(final XRepository repository, final CapabilityIndex index) {
+        final List<XResource> resources = new ArrayList<XResource>();
+        PersistentMap<String, Set<XCapability>> values = index.namespaces.get(IDENTITY_NAMESPACE);
+        if (values != null) {
+            for (Set<XCapability> caps : values) {
+                for (XCapability cap : caps) {
+                    resources.add(cap.getResource());
                 }
-                result = allcaps;
             }
-            return result;
         }
+        return new RepositoryReader() {
+            private final Iterator<XResource> iterator = resources.iterator();
+
+            @Override
+            public Map<String, String> getRepositoryAttributes() {
+                HashMap<String, String> attributes = new HashMap<String, String>();
+                attributes.put("name", repository.getName());
+                attributes.put("increment", new Long(index.increment).toString());
+                return Collections.unmodifiableMap(attributes);
+            }
+
+            @Override
+            public XResource nextResource() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        };
     }
 
-    private boolean matches(Requirement req, Capability cap) {
+    private static Set<XCapability> getCapabilities(Map<String, PersistentMap<String, Set<XCapability>>> namespaces, String namespace, String nsvalue) {
+        PersistentMap<String, Set<XCapability>> values = namespaces.get(namespace);
+        Set<XCapability> result = values != null ? values.get(nsvalue) : null;
+        return result != null ? result : Collections.<XCapability> emptySet();
+    }
+
+    private static boolean matches(Requirement req, Capability cap) {
         boolean result;
         if (req instanceof XRequirement) {
             XRequirement xreq = (XRequirement) req;
@@ -281,8 +499,270 @@ public class MemoryRepositoryStorage implements RepositoryStorage {
         return result;
     }
 
-    private boolean matchFilter(Requirement req, Capability cap) {
+    private static boolean matchFilter(Requirement req, Capability cap) {
         Filter filter = AbstractRequirement.getFilterFromDirective(req);
         return filter != null ? filter.match(new Hashtable<String, Object>(cap.getAttributes())) : true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streams the matches of a requirement from an index. It returns the same
+     * matches as {@link #findProviders(CapabilityIndex, Requirement)}.
+     * A filter that admits a single namespace value only visits the capabilities with that value.
+     */
+    private static final class ProviderIterator implements Iterator<Capability> {
+        private final Requirement req;
+        private final Iterator<Set<XCapability>> buckets;
+        private Iterator<XCapability> caps = Collections.<XCapability> emptyIterator();
+        private int skip;
+        private int remaining;
+        private Capability next;
+
+        ProviderIterator(CapabilityIndex index, Requirement req, int offset, int limit) {
+            if (req == null)
+                throw MESSAGES.illegalArgumentNull("req");
+            if (offset < 0)
+                throw MESSAGES.illegalArgumentValue("offset", offset);
+            if (limit < -1)
+                throw MESSAGES.illegalArgumentValue("limit", limit);
+            this.req = req;
+            this.skip = offset;
+            this.remaining = limit;
+            String namespace = req.getNamespace();
+            String nsvalue = AbstractRepository.getFilterNamespaceValue(req);
+            if (nsvalue != null) {
+                buckets = Collections.singleton(getCapabilities(index.namespaces, namespace, nsvalue)).iterator();
+            } else {
+                PersistentMap<String, Set<XCapability>> values = index.namespaces.get(namespace);
+                buckets = values != null ? values.iterator() : Collections.<Set<XCapability>> emptyIterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && remaining != 0) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Capability next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Capability result = next;
+            next = null;
+            if (remaining > 0) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Capability findNext() {
+            while (true) {
+                while (caps.hasNext()) {
+                    XCapability cap = caps.next();
+                    if (matches(req, cap)) {
+                        if (skip == 0)
+                            return cap;
+                        skip--;
+                    }
+                }
+                if (!buckets.hasNext())
+                    return null;
+                caps = buckets.next().iterator();
+            }
+        }
+    }
+
+    /**
+     * The resources that were added or removed together at an increment
+     */
+    private static final class StorageChange {
+        private final long increment;
+        private final List<XResource> resources;
+        private final boolean added;
+
+        StorageChange(long increment, List<XResource> resources, boolean added) {
+            this.increment = increment;
+            this.resources = resources;
+            this.added = added;
+        }
+    }
+
+    /**
+     * The capabilities by namespace and namespace value, as of an increment.
+     * An index is never modified once it is published.
+     * Namespaces without a recorded increment were last modified at or before the base increment.
+     */
+    private static final class CapabilityIndex {
+        private final long increment;
+        private final Map<String, PersistentMap<String, Set<XCapability>>> namespaces;
+        private final Map<String, Long> namespaceIncrements;
+        private final long baseIncrement;
+
+        CapabilityIndex(long increment, Map<String, PersistentMap<String, Set<XCapability>>> namespaces, Map<String, Long> namespaceIncrements, long baseIncrement) {
+            this.increment = increment;
+            this.namespaces = namespaces;
+            this.namespaceIncrements = namespaceIncrements;
+            this.baseIncrement = baseIncrement;
+        }
+
+        long getNamespaceIncrement(String namespace) {
+            Long result = namespaceIncrements.get(namespace);
+            return result != null ? result : baseIncrement;
+        }
+    }
+
+    /**
+     * Builds the next index from a published one. A capability set is copied the first time
+     * it is modified, the value maps share everything else with the published index.
+     */
+    private static final class IndexBuilder {
+        private final CapabilityIndex index;
+        private final Set<String> modifiedNamespaces = new HashSet<String>();
+        private final Map<String, PersistentMap<String, Set<XCapability>>> namespaces;
+        private final Map<Object, Boolean> copied = new IdentityHashMap<Object, Boolean>();
+
+        IndexBuilder(CapabilityIndex index) {
+            this.index = index;
+            this.namespaces = new HashMap<String, PersistentMap<String, Set<XCapability>>>(index.namespaces);
+        }
+
+        Set<XCapability> getWritableCapabilities(String namespace, String nsvalue) {
+            modifiedNamespaces.add(namespace);
+            PersistentMap<String, Set<XCapability>> values = namespaces.get(namespace);
+            if (values == null) {
+                values = PersistentMap.empty();
+            }
+            Set<XCapability> caps = values.get(nsvalue);
+            if (caps == null || !copied.containsKey(caps)) {
+                caps = caps != null ? new HashSet<XCapability>(caps) : new HashSet<XCapability>();
+                namespaces.put(namespace, values.put(nsvalue, caps));
+                copied.put(caps, Boolean.TRUE);
+            }
+            return caps;
+        }
+
+        void removeCapabilities(String namespace, String nsvalue) {
+            PersistentMap<String, Set<XCapability>> values = namespaces.get(namespace);
+            if (values != null) {
+                values = values.remove(nsvalue);
+                if (values.isEmpty()) {
+                    namespaces.remove(namespace);
+                } else {
+                    namespaces.put(namespace, values);
+                }
+            }
+        }
+
+        CapabilityIndex build(long increment) {
+            Map<String, Long> namespaceIncrements = new HashMap<String, Long>(index.namespaceIncrements);
+            for (String namespace : modifiedNamespaces) {
+                namespaceIncrements.put(namespace, increment);
+            }
+            return new CapabilityIndex(increment, namespaces, namespaceIncrements, index.baseIncrement);
+        }
+    }
+
+    /**
+     * A read-only view of a published index
+     */
+    private static final class Snapshot implements XRepositoryStorage {
+        private final MemoryRepositoryStorage storage;
+        private final XRepository repository;
+        private final CapabilityIndex index;
+
+        Snapshot(MemoryRepositoryStorage storage, CapabilityIndex index) {
+            this.storage = storage;
+            this.repository = storage.getRepository();
+            this.index = index;
+        }
+
+        @Override
+        public XRepository getRepository() {
+            return repository;
+        }
+
+        @Override
+        public RepositoryReader getRepositoryReader() {
+            return MemoryRepositoryStorage.getRepositoryReader(repository, index);
+        }
+
+        @Override
+        public Collection<Capability> findProviders(Requirement req) {
+            return MemoryRepositoryStorage.findProviders(index, req);
+        }
+
+        @Override
+        public RepositoryQueryResult findProviders(Collection<? extends Requirement> reqs, long increment) {
+            return MemoryRepositoryStorage.findProviders(index, reqs, increment);
+        }
+
+        @Override
+        public long getNamespaceIncrement(String namespace) {
+            if (namespace == null)
+                throw MESSAGES.illegalArgumentNull("namespace");
+            return index.getNamespaceIncrement(namespace);
+        }
+
+        @Override
+        public Iterator<Capability> iterateProviders(Requirement req, int offset, int limit) {
+            return new ProviderIterator(index, req, offset, limit);
+        }
+
+        @Override
+        public XResource getResource(XIdentityCapability icap) {
+            if (icap == null)
+                throw MESSAGES.illegalArgumentNull("icap");
+            return MemoryRepositoryStorage.getResource(index.namespaces, icap);
+        }
+
+        @Override
+        public XResource addResource(XResource resource) {
+            throw MESSAGES.cannotModifyStorageSnapshot(index.increment);
+        }
+
+        @Override
+        public Collection<XResource> addResources(Collection<? extends XResource> resources) {
+            throw MESSAGES.cannotModifyStorageSnapshot(index.increment);
+        }
+
+        @Override
+        public boolean removeResource(XResource resource) {
+            throw MESSAGES.cannotModifyStorageSnapshot(index.increment);
+        }
+
+        @Override
+        public XRepositoryStorage snapshot() {
+            return this;
+        }
+
+        /**
+         * The changes of the storage up to the increment of this snapshot
+         */
+        @Override
+        public RepositoryChanges getChangesSince(long increment) {
+            return storage.getChanges(increment, index.increment);
+        }
+
+        @Override
+        public void addStorageListener(RepositoryStorageListener listener) {
+            // A snapshot never changes
+        }
+
+        @Override
+        public void removeStorageListener(RepositoryStorageListener listener) {
+            // A snapshot never changes
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[" + repository.getName() + ",increment=" + index.increment + "]";
+        }
+    }
+}
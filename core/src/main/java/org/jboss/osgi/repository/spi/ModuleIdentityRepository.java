@@ -25,17 +25,22 @@ import static org.jboss.osgi.resolver.XResource.MODULE_IDENTITY_NAMESPACE;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -45,6 +50,7 @@ import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
 import org.jboss.modules.ModuleLoader;
 import org.jboss.modules.Resource;
+import org.jboss.osgi.metadata.OSGiManifestBuilder;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.metadata.OSGiMetaDataBuilder;
 import org.jboss.osgi.repository.XRepository;
@@ -65,6 +71,55 @@ import org.osgi.resource.Requirement;
 public class ModuleIdentityRepository extends AbstractRepository {
 
     private final ModuleLoader moduleLoader;
+    private final ConcurrentMap<ModuleIdentifier, ModuleEntry> moduleCache = new ConcurrentHashMap<ModuleIdentifier, ModuleEntry>();
+
+    /**
+     * The metadata and resource derived from a loaded module.
+     * The entry is only valid for the module instance it was derived from.
+     */
+    private static final class ModuleEntry {
+        private final WeakReference<Module> moduleRef;
+        private final OSGiMetaData metadata;
+        private final XResource resource;
+
+        ModuleEntry(Module module, OSGiMetaData metadata, XResource resource) {
+            this.moduleRef = new WeakReference<Module>(module);
+            this.metadata = metadata;
+            this.resource = resource;
+        }
+
+        boolean isValid(Module module) {
+            return moduleRef.get() == module;
+        }
+    }
+
+    /**
+     * The state of a single lookup, so that the module is loaded
+     * and its manifest is read at most once.
+     */
+    private static final class LookupContext {
+        private final ModuleIdentifier moduleId;
+        private final Module module;
+        private Manifest manifest;
+        private boolean manifestLoaded;
+
+        LookupContext(ModuleIdentifier moduleId, Module module) {
+            this.moduleId = moduleId;
+            this.module = module;
+        }
+
+        ModuleClassLoader getClassLoader() {
+            return module.getClassLoader();
+        }
+
+        Manifest getManifest() throws IOException {
+            if (!manifestLoaded) {
+                manifest = loadManifest(getClassLoader());
+                manifestLoaded = true;
+            }
+            return manifest;
+        }
+    }
 
     public ModuleIdentityRepository(ModuleLoader moduleLoader) {
         if (moduleLoader == null)
@@ -86,6 +141,11 @@ public class ModuleIdentityRepository extends AbstractRepository {
         return module;
     }
 
+    @Override
+    public Collection<String> getSupportedNamespaces() {
+        return Collections.singleton(MODULE_IDENTITY_NAMESPACE);
+    }
+
     @Override
     public Collection<Capability> findProviders(Requirement req) {
         String namespace = req.getNamespace();
@@ -99,7 +159,13 @@ public class ModuleIdentityRepository extends AbstractRepository {
 
         // Load the module
         ModuleIdentifier moduleId = ModuleIdentifier.fromString(idspec);
-        Module module = loadModule(moduleId);
+        LookupContext context = new LookupContext(moduleId, loadModule(moduleId));
+
+        // A module that was not reloaded maps to the same resource
+        ModuleEntry entry = getModuleEntry(moduleId, context.module);
+        if (entry != null && entry.resource != null) {
+            return Collections.<Capability> singletonList(entry.resource.getIdentityCapability());
+        }
 
         // Build the module resource
         XResourceBuilder<XResource> factory = XResourceBuilderFactory.create();
@@ -109,8 +175,10 @@ public class ModuleIdentityRepository extends AbstractRepository {
         // Convert the resource to the given target type
         List<Capability> result = new ArrayList<Capability>();
         try {
-            resource = getTargetResource(resource, module);
+            resource = getTargetResource(resource, context);
             result.add(resource.getIdentityCapability());
+            entry = getModuleEntry(moduleId, context.module);
+            moduleCache.put(moduleId, new ModuleEntry(context.module, entry != null ? entry.metadata : null, resource));
         } catch (Exception ex) {
             LOGGER.errorCannotCreateResource(ex, idspec);
         }
@@ -118,10 +186,14 @@ public class ModuleIdentityRepository extends AbstractRepository {
         return Collections.unmodifiableList(result);
     }
 
-    private XResource getTargetResource(XResource resource, Module module) throws Exception {
+    private XResource getTargetResource(XResource resource, LookupContext context) throws Exception {
+        OSGiMetaData metadata = getOSGiMetaData(context);
+        XResourceBuilder<XResource> auxbuilder = getResourceBuilder(resource);
+        auxbuilder.loadFrom(metadata);
+        XResource auxres = auxbuilder.getResource();
+
         // Add the module identity attribute and remove all requirements
-        ModuleIdentifier moduleId = module.getIdentifier();
-        XResource auxres = super.getTargetResource(resource);
+        ModuleIdentifier moduleId = context.moduleId;
         XIdentityCapability icap = auxres.getIdentityCapability();
         XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
         for (Capability cap : auxres.getCapabilities(null)) {
@@ -145,9 +217,11 @@ public class ModuleIdentityRepository extends AbstractRepository {
 
     @Override
     public Manifest getResourceManifest(XResource resource) throws IOException {
+        return getLookupContext(resource).getManifest();
+    }
+
+    private static Manifest loadManifest(ModuleClassLoader classLoader) throws IOException {
         Manifest manifest = null;
-        Module module = loadModule(getModuleIdentifier(resource));
-        ModuleClassLoader classLoader = module.getClassLoader();
         Enumeration<URL> urls = classLoader.findResources(JarFile.MANIFEST_NAME, false);
         while (urls.hasMoreElements()) {
             URL manifestURL = urls.nextElement();
@@ -169,15 +243,56 @@ public class ModuleIdentityRepository extends AbstractRepository {
 
     @Override
     public OSGiMetaData getOSGiMetaData(XResource resource) throws IOException {
-        OSGiMetaData result = getOSGiMetaDataFromManifest(resource);
-        if (result == null) {
-            ModuleIdentifier moduleId = getModuleIdentifier(resource);
-            Module module = loadModule(moduleId);
-            result = getOSGiMetaDataFromModule(module);
+        return getOSGiMetaData(getLookupContext(resource));
+    }
+
+    private OSGiMetaData getOSGiMetaData(LookupContext context) throws IOException {
+        ModuleEntry entry = getModuleEntry(context.moduleId, context.module);
+        if (entry != null && entry.metadata != null) {
+            return entry.metadata;
         }
+        OSGiMetaData result;
+        Manifest manifest = context.getManifest();
+        if (OSGiManifestBuilder.isValidBundleManifest(manifest)) {
+            result = OSGiMetaDataBuilder.load(manifest);
+        } else {
+            result = getOSGiMetaDataFromModule(context.module);
+        }
+        moduleCache.put(context.moduleId, new ModuleEntry(context.module, result, null));
         return result;
     }
 
+    private LookupContext getLookupContext(XResource resource) {
+        ModuleIdentifier moduleId = getModuleIdentifier(resource);
+        return new LookupContext(moduleId, loadModule(moduleId));
+    }
+
+    /**
+     * Drop the cached metadata and resource for the given module
+     */
+    public void invalidateModule(ModuleIdentifier moduleId) {
+        if (moduleId == null)
+            throw MESSAGES.illegalArgumentNull("moduleId");
+        moduleCache.remove(moduleId);
+    }
+
+    /**
+     * Drop the cached metadata and resources for all modules
+     */
+    public void invalidateModules() {
+        moduleCache.clear();
+    }
+
+    private ModuleEntry getModuleEntry(ModuleIdentifier moduleId, Module module) {
+        ModuleEntry entry = moduleCache.get(moduleId);
+        if (entry != null && !entry.isValid(module)) {
+            LOGGER.debugf("Module reloaded: %s", moduleId);
+            moduleCache.remove(moduleId, entry);
+            entry = null;
+        }
+        return entry;
+    }
+
     public OSGiMetaData getOSGiMetaDataFromModule(Module module) {
 
         // Get symbolic name & version
@@ -192,27 +307,112 @@ public class ModuleIdentityRepository extends AbstractRepository {
         OSGiMetaDataBuilder builder = OSGiMetaDataBuilder.createBuilder(symbolicName, version);
 
         // Add a package capability for every exported path
-        Set<String> paths = new HashSet<String>();
-        Iterator<Resource> it = module.getClassLoader().iterateResources("", true);
+        for (String packageName : getPackageNames(module)) {
+            builder.addExportPackages(packageName);
+        }
+
+        return builder.getOSGiMetaData();
+    }
+
+    /**
+     * Get the names of the exported packages that contain classes of the given module.
+     *
+     * Candidate paths come from the path index of the module's resource loaders. Each candidate
+     * is verified with a non-recursive listing, which is split across a fork/join pool for
+     * modules with many paths. Without a path index, all module resources are scanned.
+     */
+    private Collection<String> getPackageNames(Module module) {
+        ModuleClassLoader classLoader = module.getClassLoader();
+        List<String> candidates = new ArrayList<String>();
+        for (String path : module.getExportedPaths()) {
+            if (path.length() > 0 && !path.startsWith("META-INF")) {
+                candidates.add(path);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return scanPackageNames(classLoader);
+        }
+        Collections.sort(candidates);
+        PackageScanTask task = new PackageScanTask(classLoader, candidates, 0, candidates.size());
+        if (candidates.size() <= PackageScanTask.BATCH_SIZE) {
+            return task.compute();
+        }
+        return PackageScanTask.POOL.invoke(task);
+    }
+
+    private static Collection<String> scanPackageNames(ModuleClassLoader classLoader) {
+        Set<String> result = new LinkedHashSet<String>();
+        String lastPath = null;
+        Iterator<Resource> it = classLoader.iterateResources("", true);
         while (it.hasNext()) {
-            Resource res = it.next();
-            String path = res.getName();
-            if (!path.endsWith(".class"))
+            String name = it.next().getName();
+            if (!name.endsWith(".class"))
                 continue;
 
-            int index = path.lastIndexOf("/");
+            int index = name.lastIndexOf('/');
             if (index <= 0)
                 continue;
 
-            path = path.substring(0, index);
-            if (!paths.contains(path)) {
-                paths.add(path);
-                String packageName = path.replace('/', '.');
-                builder.addExportPackages(packageName);
+            // Classes of a package are mostly listed together, only allocate for a new path
+            if (lastPath != null && lastPath.length() == index && name.regionMatches(0, lastPath, 0, index))
+                continue;
+
+            lastPath = name.substring(0, index);
+            result.add(lastPath.replace('/', '.'));
+        }
+        return result;
+    }
+
+    /**
+     * Verify a range of candidate paths, splitting large ranges
+     */
+    private static final class PackageScanTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        static final int BATCH_SIZE = 32;
+        static final ForkJoinPool POOL = new ForkJoinPool();
+
+        private final ModuleClassLoader classLoader;
+        private final List<String> candidates;
+        private final int start;
+        private final int end;
+
+        PackageScanTask(ModuleClassLoader classLoader, List<String> candidates, int start, int end) {
+            this.classLoader = classLoader;
+            this.candidates = candidates;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (end - start > BATCH_SIZE) {
+                int middle = (start + end) >>> 1;
+                PackageScanTask left = new PackageScanTask(classLoader, candidates, start, middle);
+                PackageScanTask right = new PackageScanTask(classLoader, candidates, middle, end);
+                right.fork();
+                List<String> result = left.compute();
+                result.addAll(right.join());
+                return result;
+            }
+            List<String> result = new ArrayList<String>();
+            for (int i = start; i < end; i++) {
+                String path = candidates.get(i);
+                if (containsClass(path)) {
+                    result.add(path.replace('/', '.'));
+                }
             }
+            return result;
         }
 
-        return builder.getOSGiMetaData();
+        private boolean containsClass(String path) {
+            Iterator<Resource> it = classLoader.iterateResources(path, false);
+            while (it.hasNext()) {
+                if (it.next().getName().endsWith(".class"))
+                    return true;
+            }
+            return false;
+        }
     }
 
     public ModuleIdentifier getModuleIdentifier(XResource resource) {
@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import static org.jboss.osgi.repository.RepositoryLogger.LOGGER;
+import static org.jboss.osgi.repository.RepositoryMessages.MESSAGES;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.XRepositoryStorage;
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
+import org.jboss.osgi.resolver.XResource;
+import org.osgi.resource.Capability;
+
+/**
+ * Adds the modules found below local module roots to a {@link RepositoryStorage}.
+ *
+ * Modules are otherwise only turned into resources when a module identity requirement
+ * comes in. Indexing them ahead of time makes the packages they provide visible to
+ * package queries against the storage.
+ *
+ * Modules are converted by the {@link ModuleIdentityRepository} on a thread pool and
+ * added to the storage in batches. Modules that already have a resource in storage are skipped.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class ModuleRootIndexer {
+
+    public static final String MODULE_XML_NAME = "module.xml";
+
+    /** The default number of resources that are added to storage in one operation */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final ModuleIdentityRepository moduleRepository;
+    private final RepositoryStorage storage;
+    private final List<File> moduleRoots;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public ModuleRootIndexer(ModuleIdentityRepository moduleRepository, RepositoryStorage storage, File... moduleRoots) {
+        if (moduleRepository == null)
+            throw MESSAGES.illegalArgumentNull("moduleRepository");
+        if (storage == null)
+            throw MESSAGES.illegalArgumentNull("storage");
+        if (moduleRoots == null)
+            throw MESSAGES.illegalArgumentNull("moduleRoots");
+        this.moduleRepository = moduleRepository;
+        this.storage = storage;
+        this.moduleRoots = Collections.unmodifiableList(Arrays.asList(moduleRoots));
+    }
+
+    public List<File> getModuleRoots() {
+        return moduleRoots;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads that convert modules to resources
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1)
+            throw MESSAGES.illegalArgumentValue("threadCount", threadCount);
+        this.threadCount = threadCount;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of resources that are added to storage in one operation
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw MESSAGES.illegalArgumentValue("batchSize", batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Index the module roots on a background thread
+     *
+     * @return A future for the number of resources that were added to storage
+     */
+    public Future<Integer> start() {
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return index();
+            }
+        });
+        Thread thread = new Thread(task, "ModuleRootIndexer");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Index the module roots on the calling thread
+     *
+     * @return The number of resources that were added to storage
+     */
+    public int index() throws InterruptedException {
+        List<ModuleIdentifier> moduleIds = new ArrayList<ModuleIdentifier>();
+        for (File moduleRoot : moduleRoots) {
+            moduleIds.addAll(findModuleIdentifiers(moduleRoot));
+        }
+        LOGGER.debugf("Indexing %d modules", moduleIds.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(1, moduleIds.size())), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "ModuleRootIndexer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            CompletionService<XResource> completionService = new ExecutorCompletionService<XResource>(executor);
+            for (final ModuleIdentifier moduleId : moduleIds) {
+                completionService.submit(new Callable<XResource>() {
+                    @Override
+                    public XResource call() throws Exception {
+                        return getModuleResource(moduleId);
+                    }
+                });
+            }
+
+            // Add the converted resources in batches as they complete
+            int added = 0;
+            List<XResource> batch = new ArrayList<XResource>();
+            for (int i = 0; i < moduleIds.size(); i++) {
+                XResource resource = getResult(completionService.take());
+                if (resource != null) {
+                    batch.add(resource);
+                }
+                if (batch.size() >= batchSize || (i == moduleIds.size() - 1 && !batch.isEmpty())) {
+                    added += addResources(batch);
+                    batch.clear();
+                }
+            }
+            LOGGER.debugf("Indexed %d modules, added %d resources", moduleIds.size(), added);
+            return added;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int addResources(List<XResource> batch) {
+        if (storage instanceof XRepositoryStorage) {
+            return ((XRepositoryStorage) storage).addResources(batch).size();
+        }
+        int added = 0;
+        for (XResource resource : batch) {
+            if (storage.getResource(resource.getIdentityCapability()) == null) {
+                storage.addResource(resource);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Find the identifiers of the modules below the given module root.
+     *
+     * A module lives in a directory that contains a {@code module.xml}. The path of that
+     * directory relative to the module root gives the module name, its last segment the slot.
+     */
+    public static List<ModuleIdentifier> findModuleIdentifiers(File moduleRoot) {
+        if (moduleRoot == null)
+            throw MESSAGES.illegalArgumentNull("moduleRoot");
+        List<ModuleIdentifier> result = new ArrayList<ModuleIdentifier>();
+        File[] children = moduleRoot.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    findModuleIdentifiers(child, child.getName(), result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void findModuleIdentifiers(File dir, String path, List<ModuleIdentifier> result) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        // Do not descend into module directories
+        int index = path.lastIndexOf('.');
+        if (index > 0 && new File(dir, MODULE_XML_NAME).isFile()) {
+            result.add(ModuleIdentifier.create(path.substring(0, index), path.substring(index + 1)));
+            return;
+        }
+
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findModuleIdentifiers(child, path + "." + child.getName(), result);
+            }
+        }
+    }
+
+    private XResource getModuleResource(ModuleIdentifier moduleId) {
+        try {
+            XRequirement req = XRequirementBuilder.create(moduleId).getRequirement();
+            Collection<Capability> caps = moduleRepository.findProviders(req);
+            return caps.isEmpty() ? null : ((XCapability) caps.iterator().next()).getResource();
+        } catch (RuntimeException ex) {
+            LOGGER.warnCannotIndexModule(ex, moduleId);
+            return null;
+        }
+    }
+
+    private XResource getResult(Future<XResource> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            // Module failures are logged by the conversion task
+            return null;
+        }
+    }
+}
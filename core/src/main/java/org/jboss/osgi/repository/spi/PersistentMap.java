@@ -0,0 +1,398 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.osgi.repository.spi;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable hash map that shares its structure with the map it was derived from.
+ *
+ * The entries are held in a trie of 32-way nodes that is indexed by the bits of the key hash.
+ * {@link #put(Object, Object)} and {@link #remove(Object)} only copy the nodes on the path to the key,
+ * so an update costs O(log32 n) instead of a copy of the whole map.
+ * The iteration order only depends on the key hashes, it does not change when other keys are added or removed.
+ *
+ * Keys may be null, values may not.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+final class PersistentMap<K, V> implements Iterable<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30;
+
+    private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<Object, Object>(null, 0);
+    private static final BitmapNode EMPTY_NODE = new BitmapNode(0, new Object[0]);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        Entry entry = root != null ? root.find(0, hash(key), key) : null;
+        return entry != null ? (V) entry.value : null;
+    }
+
+    /**
+     * Get a map that maps the given key to the given value
+     */
+    PersistentMap<K, V> put(K key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null value");
+        int hash = hash(key);
+        Entry entry = new Entry(hash, key, value);
+        if (root == null)
+            return new PersistentMap<K, V>(EMPTY_NODE.put(0, entry), 1);
+        Entry existing = root.find(0, hash, key);
+        if (existing != null && existing.value == value)
+            return this;
+        return new PersistentMap<K, V>(root.put(0, entry), existing != null ? size : size + 1);
+    }
+
+    /**
+     * Get a map without the given key
+     */
+    PersistentMap<K, V> remove(Object key) {
+        if (root == null)
+            return this;
+        Node node = root.remove(0, hash(key), key);
+        if (node == root)
+            return this;
+        return node != null ? new PersistentMap<K, V>(node, size - 1) : PersistentMap.<K, V> empty();
+    }
+
+    /**
+     * Iterate over the values of this map
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new ValueIterator<V>(root);
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentMap[size=" + size + "]";
+    }
+
+    private static int hash(Object key) {
+        if (key == null)
+            return 0;
+        // Spread the bits like HashMap does, so that similar keys do not share a path
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * A key with its value
+     */
+    private static final class Entry {
+        private final int hash;
+        private final Object key;
+        private final Object value;
+
+        Entry(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean matches(int hash, Object key) {
+            return this.hash == hash && equal(this.key, key);
+        }
+    }
+
+    /**
+     * A trie node. Nodes are never modified once they are created.
+     */
+    private abstract static class Node {
+
+        abstract Entry find(int shift, int hash, Object key);
+
+        abstract Node put(int shift, Entry entry);
+
+        /**
+         * @return This node if the key is not contained, or null if the node becomes empty
+         */
+        abstract Node remove(int shift, int hash, Object key);
+
+        /**
+         * @return The entry if this node holds a single entry, otherwise null
+         */
+        abstract Entry getSingleEntry();
+
+        abstract Iterator<Object> children();
+    }
+
+    /**
+     * Holds an entry or a child node for every set bit of its bitmap
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        Entry find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object slot = slots[index(bit)];
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                return entry.matches(hash, key) ? entry : null;
+            }
+            return ((Node) slot).find(shift + BITS, hash, key);
+        }
+
+        @Override
+        Node put(int shift, Entry entry) {
+            int bit = bit(entry.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, copy, 0, index);
+                copy[index] = entry;
+                System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object slot = slots[index];
+            Object replacement;
+            if (slot instanceof Entry) {
+                Entry existing = (Entry) slot;
+                replacement = existing.matches(entry.hash, entry.key) ? entry : createNode(shift + BITS, existing, entry);
+            } else {
+                replacement = ((Node) slot).put(shift + BITS, entry);
+            }
+            Object[] copy = slots.clone();
+            copy[index] = replacement;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = index(bit);
+            Object slot = slots[index];
+            Object replacement = null;
+            if (slot instanceof Entry) {
+                if (!((Entry) slot).matches(hash, key))
+                    return this;
+            } else {
+                Node node = ((Node) slot).remove(shift + BITS, hash, key);
+                if (node == slot)
+                    return this;
+                // Pull a single remaining entry up into this node
+                Entry single = node != null ? node.getSingleEntry() : null;
+                replacement = single != null ? single : node;
+            }
+            if (replacement == null) {
+                if (slots.length == 1)
+                    return null;
+                Object[] copy = new Object[slots.length - 1];
+                System.arraycopy(slots, 0, copy, 0, index);
+                System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+                return new BitmapNode(bitmap & ~bit, copy);
+            }
+            Object[] copy = slots.clone();
+            copy[index] = replacement;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Entry getSingleEntry() {
+            return slots.length == 1 && slots[0] instanceof Entry ? (Entry) slots[0] : null;
+        }
+
+        @Override
+        Iterator<Object> children() {
+            return Arrays.asList(slots).iterator();
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static Node createNode(int shift, Entry first, Entry second) {
+            if (first.hash == second.hash || shift > MAX_SHIFT)
+                return new CollisionNode(first.hash, new Entry[] { first, second });
+            return EMPTY_NODE.put(shift, first).put(shift, second);
+        }
+    }
+
+    /**
+     * Holds the entries of distinct keys with the same hash
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Entry[] entries;
+
+        CollisionNode(int hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+
+        @Override
+        Entry find(int shift, int hash, Object key) {
+            int index = indexOf(hash, key);
+            return index >= 0 ? entries[index] : null;
+        }
+
+        @Override
+        Node put(int shift, Entry entry) {
+            if (entry.hash != hash) {
+                // Nest this node below a node that tells the hashes apart
+                Node node = new BitmapNode(BitmapNode.bit(hash, shift), new Object[] { this });
+                return node.put(shift, entry);
+            }
+            int index = indexOf(entry.hash, entry.key);
+            Entry[] copy;
+            if (index >= 0) {
+                copy = entries.clone();
+                copy[index] = entry;
+            } else {
+                copy = Arrays.copyOf(entries, entries.length + 1);
+                copy[entries.length] = entry;
+            }
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int index = indexOf(hash, key);
+            if (index < 0)
+                return this;
+            if (entries.length == 1)
+                return null;
+            Entry[] copy = new Entry[entries.length - 1];
+            System.arraycopy(entries, 0, copy, 0, index);
+            System.arraycopy(entries, index + 1, copy, index, entries.length - index - 1);
+            return new CollisionNode(this.hash, copy);
+        }
+
+        @Override
+        Entry getSingleEntry() {
+            return entries.length == 1 ? entries[0] : null;
+        }
+
+        @Override
+        Iterator<Object> children() {
+            return Arrays.<Object> asList((Object[]) entries).iterator();
+        }
+
+        private int indexOf(int hash, Object key) {
+            if (hash == this.hash) {
+                for (int i = 0; i < entries.length; i++) {
+                    if (equal(entries[i].key, key))
+                        return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Walks the trie depth first
+     */
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final Deque<Iterator<Object>> stack = new ArrayDeque<Iterator<Object>>();
+        private Entry next;
+
+        ValueIterator(Node root) {
+            if (root != null) {
+                stack.push(root.children());
+            }
+            next = findNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Entry result = next;
+            next = findNext();
+            return (V) result.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Entry findNext() {
+            while (!stack.isEmpty()) {
+                Iterator<Object> children = stack.peek();
+                if (!children.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Object child = children.next();
+                if (child instanceof Entry)
+                    return (Entry) child;
+                stack.push(((Node) child).children());
+            }
+            return null;
+        }
+    }
+}
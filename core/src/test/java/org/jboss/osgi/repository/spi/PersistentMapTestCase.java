@@ -0,0 +1,276 @@
+package org.jboss.osgi.repository.spi;
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.jboss.test.osgi.repository.AbstractRepositoryTest;
+import org.junit.Test;
+
+/**
+ * Test the {@link PersistentMap}.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class PersistentMapTestCase extends AbstractRepositoryTest {
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        PersistentMap<String, String> empty = PersistentMap.empty();
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertNull(empty.get("a"));
+
+        PersistentMap<String, String> map = empty.put("a", "A").put("b", "B").put(null, "N");
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("A", map.get("a"));
+        Assert.assertEquals("B", map.get("b"));
+        Assert.assertEquals("N", map.get(null));
+        Assert.assertNull(map.get("c"));
+
+        // The maps that an update was derived from do not change
+        Assert.assertTrue(empty.isEmpty());
+        PersistentMap<String, String> other = map.put("a", "A2");
+        Assert.assertEquals(3, other.size());
+        Assert.assertEquals("A2", other.get("a"));
+        Assert.assertEquals("A", map.get("a"));
+
+        Assert.assertSame(map, map.put("b", map.get("b")));
+        try {
+            map.put("c", null);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCollidingKeys() throws Exception {
+        Key a = new Key("a", 42);
+        Key b = new Key("b", 42);
+        Key c = new Key("c", 42);
+        PersistentMap<Key, String> map = PersistentMap.<Key, String> empty().put(a, "A").put(b, "B").put(c, "C");
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("A", map.get(a));
+        Assert.assertEquals("B", map.get(b));
+        Assert.assertEquals("C", map.get(c));
+        Assert.assertNull(map.get(new Key("d", 42)));
+        Assert.assertEquals(3, getValues(map).size());
+
+        // Replace a value in the collision node
+        PersistentMap<Key, String> replaced = map.put(b, "B2");
+        Assert.assertEquals(3, replaced.size());
+        Assert.assertEquals("B2", replaced.get(b));
+        Assert.assertEquals("B", map.get(b));
+
+        // Add a key with another hash that shares the first trie level with the collision node
+        Key d = new Key("d", 76);
+        PersistentMap<Key, String> nested = map.put(d, "D");
+        Assert.assertEquals(4, nested.size());
+        Assert.assertEquals("C", nested.get(c));
+        Assert.assertEquals("D", nested.get(d));
+        nested = nested.remove(d);
+        Assert.assertEquals(3, nested.size());
+        Assert.assertNull(nested.get(d));
+        Assert.assertEquals("A", nested.get(a));
+        nested = nested.remove(a).remove(b);
+        Assert.assertEquals(1, nested.size());
+        Assert.assertEquals("C", nested.get(c));
+        Assert.assertEquals("[C]", getValues(nested).toString());
+
+        // Remove the colliding keys one by one
+        Assert.assertSame(map, map.remove(new Key("d", 42)));
+        map = map.remove(b);
+        Assert.assertEquals(2, map.size());
+        Assert.assertNull(map.get(b));
+        Assert.assertEquals("A", map.get(a));
+        Assert.assertEquals("C", map.get(c));
+        map = map.remove(a).remove(c);
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertSame(PersistentMap.empty(), map);
+    }
+
+    @Test
+    public void testNodeSplitAndCollapse() throws Exception {
+        // Enough keys to split the root and its children into nested nodes
+        int count = 5000;
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < count; i++) {
+            map = map.put(i, i);
+            Assert.assertEquals(i + 1, map.size());
+        }
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(Integer.valueOf(i), map.get(i));
+        }
+        Assert.assertEquals(count, getValues(map).size());
+
+        // Remove every key, the remaining keys must stay reachable while the nodes collapse
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(1));
+        for (int i = 0; i < count; i++) {
+            PersistentMap<Integer, Integer> previous = map;
+            map = map.remove(keys.get(i));
+            Assert.assertEquals(count - i - 1, map.size());
+            Assert.assertNull(map.get(keys.get(i)));
+            Assert.assertEquals(keys.get(i), previous.get(keys.get(i)));
+            Assert.assertSame(map, map.remove(keys.get(i)));
+            if (i % 500 == 0) {
+                for (int j = i + 1; j < count; j++) {
+                    Assert.assertEquals(keys.get(j), map.get(keys.get(j)));
+                }
+                Assert.assertEquals(count - i - 1, getValues(map).size());
+            }
+        }
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertSame(PersistentMap.empty(), map);
+        Assert.assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void testValueIterator() throws Exception {
+        PersistentMap<Key, String> map = PersistentMap.empty();
+        Assert.assertFalse(map.iterator().hasNext());
+
+        Map<Key, String> expected = new HashMap<Key, String>();
+        for (int i = 0; i < 100; i++) {
+            // Every third key collides with another one
+            Key key = new Key("k" + i, i % 3 == 0 ? i - 1 : i);
+            map = map.put(key, "v" + i);
+            expected.put(key, "v" + i);
+        }
+        List<String> values = getValues(map);
+        Collections.sort(values);
+        List<String> expectedValues = new ArrayList<String>(expected.values());
+        Collections.sort(expectedValues);
+        Assert.assertEquals(expectedValues, values);
+
+        // The iteration order only depends on the key hashes
+        Assert.assertEquals(getValues(map), getValues(map.put(new Key("x", 1000), "x").remove(new Key("x", 1000))));
+
+        Iterator<String> it = map.iterator();
+        while (it.hasNext()) {
+            it.next();
+        }
+        try {
+            it.next();
+            Assert.fail("NoSuchElementException expected");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+        try {
+            map.iterator().remove();
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Key, Integer> oracle = new HashMap<Key, Integer>();
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            // Small hashes with collisions in a key space that fills and drains the map
+            int id = random.nextInt(3000);
+            Key key = new Key("k" + id, id / 3);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(oracle.remove(key), map.get(key));
+                map = map.remove(key);
+            } else {
+                Integer value = Integer.valueOf(i);
+                Assert.assertEquals(oracle.put(key, value), map.get(key));
+                map = map.put(key, value);
+            }
+            Assert.assertEquals(oracle.size(), map.size());
+            if (i % 2000 == 0) {
+                verifyEquals(oracle, map);
+            }
+        }
+        verifyEquals(oracle, map);
+        for (Key key : new ArrayList<Key>(oracle.keySet())) {
+            oracle.remove(key);
+            map = map.remove(key);
+        }
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    private void verifyEquals(Map<Key, Integer> oracle, PersistentMap<Key, Integer> map) {
+        for (Map.Entry<Key, Integer> entry : oracle.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        List<Integer> values = getValues(map);
+        Collections.sort(values);
+        List<Integer> expected = new ArrayList<Integer>(oracle.values());
+        Collections.sort(expected);
+        Assert.assertEquals(expected, values);
+    }
+
+    private <V> List<V> getValues(PersistentMap<?, V> map) {
+        List<V> values = new ArrayList<V>();
+        for (V value : map) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * A key with a given hash code
+     */
+    static final class Key {
+        private final String name;
+        private final int hash;
+
+        Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return name.equals(other.name) && hash == other.hash;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
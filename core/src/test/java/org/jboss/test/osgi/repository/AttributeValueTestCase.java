@@ -77,6 +77,33 @@ public class AttributeValueTestCase extends AbstractRepositoryTest {
         Assert.assertEquals(value, AttributeValue.create(Arrays.asList("a\\b","c\\d")));
     }
 
+    @Test
+    public void testWhitespaceAndEscapeParsing() throws Exception {
+        // List<String> [a, b c, d]
+        AttributeValue value = AttributeValueHandler.readAttributeValue("List<String>", " a ,  b c,d ");
+        Assert.assertEquals(Arrays.asList("a","b c","d"), value.getValue());
+        Assert.assertEquals("a, b c, d", value.getValueString());
+
+        // List<String> [a, , b]
+        value = AttributeValueHandler.readAttributeValue("List<String>", "a,,b");
+        Assert.assertEquals(Arrays.asList("a","","b"), value.getValue());
+
+        // List<String> [a\, b]
+        value = AttributeValueHandler.readAttributeValue("List<String>", "a\\\\, b");
+        Assert.assertEquals(Arrays.asList("a\\","b"), value.getValue());
+        Assert.assertEquals("a\\\\, b", value.getValueString());
+
+        // String a,b
+        value = AttributeValueHandler.readAttributeValue(null, "a,b");
+        Assert.assertEquals("a,b", value.getValue());
+        Assert.assertEquals("a\\,b", value.getValueString());
+
+        // Reuse of the value buffer
+        StringBuilder builder = new StringBuilder("x");
+        AttributeValue.create(Arrays.asList("a,b","c")).appendValueString(builder);
+        Assert.assertEquals("xa\\,b, c", builder.toString());
+    }
+
     @Test
     public void testLongParsing() throws Exception {
         // Long 100
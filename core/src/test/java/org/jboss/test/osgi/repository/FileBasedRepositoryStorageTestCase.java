@@ -33,6 +33,7 @@ import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -44,10 +45,13 @@ import org.jboss.osgi.metadata.OSGiManifestBuilder;
 import org.jboss.osgi.repository.RepositoryContentHelper;
 import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageException;
 import org.jboss.osgi.repository.XContentCapability;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.XRepositoryStorage;
 import org.jboss.osgi.repository.spi.FileBasedRepositoryStorage;
 import org.jboss.osgi.repository.spi.MavenIdentityRepository.ConfigurationPropertyProvider;
+import org.jboss.osgi.resolver.MavenCoordinates;
 import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XIdentityCapability;
 import org.jboss.osgi.resolver.XPackageCapability;
@@ -65,6 +69,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.service.repository.RepositoryContent;
 
@@ -196,6 +202,88 @@ public class FileBasedRepositoryStorageTestCase extends AbstractRepositoryTest {
         verifyProviders(other);
     }
 
+    @Test
+    public void testAddResourcesFailsAsAWhole() throws Exception {
+        XRepositoryStorage xstorage = (XRepositoryStorage) storage;
+        String increment = storage.getRepositoryReader().getRepositoryAttributes().get("increment");
+
+        // The second resource is rejected before any content is copied
+        List<XResource> resources = new ArrayList<XResource>();
+        resources.add(getRepositoryReader("xml/repository-testA.xml").nextResource());
+        XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+        builder.addIdentityCapability(MavenCoordinates.parse("org.acme:acme-maven:1.0.0"));
+        resources.add(builder.getResource());
+        try {
+            xstorage.addResources(resources);
+            Assert.fail("RepositoryStorageException expected");
+        } catch (RepositoryStorageException ex) {
+            // expected
+        }
+        verifyNothingAdded(increment);
+
+        // The content of the first resource is removed when the second cannot be copied
+        resources.remove(1);
+        resources.add(getMissingContentResource());
+        try {
+            xstorage.addResources(resources);
+            Assert.fail("RuntimeException expected");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        verifyNothingAdded(increment);
+    }
+
+    @Test
+    public void testAddResourcesDropsDuplicates() throws Exception {
+        List<XResource> resources = new ArrayList<XResource>();
+        resources.add(getRepositoryReader("xml/repository-testA.xml").nextResource());
+        resources.add(getRepositoryReader("xml/repository-testA.xml").nextResource());
+        Assert.assertEquals(1, ((XRepositoryStorage) storage).addResources(resources).size());
+        verifyProviders(storage);
+        Assert.assertEquals(1, countContentFiles(storageDir));
+
+        RepositoryStorage other = new FileBasedRepositoryStorage(repository, storageDir, Mockito.mock(ConfigurationPropertyProvider.class));
+        verifyProviders(other);
+    }
+
+    private void verifyNothingAdded(String increment) throws Exception {
+        XRequirement req = XRequirementBuilder.create(PACKAGE_NAMESPACE, "org.acme.foo").getRequirement();
+        Assert.assertTrue("No providers", storage.findProviders(req).isEmpty());
+        Assert.assertEquals(increment, storage.getRepositoryReader().getRepositoryAttributes().get("increment"));
+        Assert.assertEquals("No content", 0, countContentFiles(storageDir));
+        RepositoryStorage other = new FileBasedRepositoryStorage(repository, storageDir, Mockito.mock(ConfigurationPropertyProvider.class));
+        Assert.assertTrue("No stored providers", other.findProviders(req).isEmpty());
+    }
+
+    private XResource getMissingContentResource() {
+        XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+        Map<String, Object> iatts = new HashMap<String, Object>();
+        iatts.put(IDENTITY_NAMESPACE, "org.acme.missing");
+        iatts.put(IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE, Version.parseVersion("1.0.0"));
+        iatts.put(IdentityNamespace.CAPABILITY_TYPE_ATTRIBUTE, IdentityNamespace.TYPE_BUNDLE);
+        builder.addCapability(IDENTITY_NAMESPACE, iatts, null);
+        Map<String, Object> atts = new HashMap<String, Object>();
+        atts.put(CONTENT_NAMESPACE, XContentCapability.DEFAULT_DIGEST);
+        atts.put(CAPABILITY_URL_ATTRIBUTE, "file:./target/missing.jar");
+        builder.addCapability(CONTENT_NAMESPACE, atts, null);
+        return builder.getResource();
+    }
+
+    private int countContentFiles(File file) {
+        int count = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    count += countContentFiles(child);
+                } else if ("content".equals(child.getName())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     @Test
     public void testBundleInfo() throws Exception {
 
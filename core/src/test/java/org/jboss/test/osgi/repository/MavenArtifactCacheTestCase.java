@@ -0,0 +1,191 @@
+package org.jboss.test.osgi.repository;
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import junit.framework.Assert;
+
+import org.jboss.osgi.repository.spi.MavenArtifactCache;
+import org.jboss.osgi.repository.spi.MavenArtifactCache.CacheEntry;
+import org.jboss.osgi.resolver.MavenCoordinates;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the {@link MavenArtifactCache}
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class MavenArtifactCacheTestCase extends AbstractRepositoryTest {
+
+    static final MavenCoordinates MAVEN_A = MavenCoordinates.parse("org.acme:acme-a:1.0.0");
+    static final MavenCoordinates MAVEN_B = MavenCoordinates.parse("org.acme:acme-b:1.0.0");
+    static final MavenCoordinates MAVEN_C = MavenCoordinates.parse("org.acme:acme-c:1.0.0");
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = new File("./target/maven-artifact-cache").getAbsoluteFile();
+        deleteRecursive(cacheDir);
+    }
+
+    @Test
+    public void testEvictUnpinned() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 10);
+        CacheEntry entryA = cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa"));
+        cache.releaseArtifact(entryA);
+        CacheEntry entryB = cache.addArtifact(MAVEN_B, getContent("bbbbbbbbbb"));
+        cache.releaseArtifact(entryB);
+
+        Assert.assertNull("Evicted", cache.getArtifact(MAVEN_A));
+        Assert.assertFalse("Content deleted", getFile(entryA).exists());
+        Assert.assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testPinnedContentIsKept() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 10);
+        cache.releaseArtifact(cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa")));
+
+        // A lookup pins the entry until it is released
+        CacheEntry entryA = cache.getArtifact(MAVEN_A);
+        Assert.assertTrue(cache.isPinned(entryA));
+        CacheEntry entryB = cache.addArtifact(MAVEN_B, getContent("bbbbbbbbbb"));
+        Assert.assertTrue("Pinned content kept", getFile(entryA).isFile());
+        Assert.assertEquals(20, cache.getSize());
+
+        // Releasing the pin evicts the entry
+        cache.releaseArtifact(entryA);
+        Assert.assertFalse(cache.isPinned(entryA));
+        Assert.assertFalse("Content deleted", getFile(entryA).exists());
+        Assert.assertEquals(10, cache.getSize());
+        cache.releaseArtifact(entryB);
+        Assert.assertTrue("Content kept", getFile(entryB).isFile());
+    }
+
+    @Test
+    public void testRetainedContentIsKept() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 10);
+        Object owner = new Object();
+        CacheEntry entryA = cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa"));
+        cache.retainArtifact(entryA, owner);
+        cache.releaseArtifact(entryA);
+
+        // The content stays while its owner is reachable
+        cache.releaseArtifact(cache.addArtifact(MAVEN_B, getContent("bbbbbbbbbb")));
+        Assert.assertTrue(cache.isPinned(entryA));
+        Assert.assertTrue("Retained content kept", getFile(entryA).isFile());
+        Assert.assertNotNull(owner);
+    }
+
+    @Test
+    public void testReplaceWithSameContent() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 100);
+        cache.releaseArtifact(cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa")));
+        CacheEntry entryA = cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa"));
+        cache.releaseArtifact(entryA);
+        Assert.assertTrue("Content kept", getFile(entryA).isFile());
+        Assert.assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testSharedContentCountsOnce() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 20);
+        CacheEntry entryA = cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa"));
+        cache.releaseArtifact(entryA);
+        CacheEntry entryB = cache.addArtifact(MAVEN_B, getContent("aaaaaaaaaa"));
+        cache.releaseArtifact(entryB);
+        Assert.assertEquals(entryA.getDigest(), entryB.getDigest());
+        Assert.assertEquals(10, cache.getSize());
+
+        // The shared content leaves room for another artifact
+        cache.releaseArtifact(cache.addArtifact(MAVEN_C, getContent("cccccccccc")));
+        Assert.assertEquals(20, cache.getSize());
+        cache.releaseArtifact(cache.getArtifact(MAVEN_A));
+        cache.releaseArtifact(cache.getArtifact(MAVEN_B));
+
+        // The size is the same for a new cache instance
+        cache = new MavenArtifactCache(cacheDir, 20);
+        Assert.assertEquals(20, cache.getSize());
+
+        // The content is freed with the last entry that uses it
+        Assert.assertTrue(cache.removeArtifact(MAVEN_A));
+        Assert.assertEquals(20, cache.getSize());
+        Assert.assertTrue("Shared content kept", getFile(entryB).isFile());
+        Assert.assertTrue(cache.removeArtifact(MAVEN_B));
+        Assert.assertEquals(10, cache.getSize());
+        Assert.assertFalse("Content deleted", getFile(entryB).exists());
+    }
+
+    @Test
+    public void testAccessOrderSurvivesRestart() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 20);
+        cache.releaseArtifact(cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa")));
+        cache.releaseArtifact(cache.addArtifact(MAVEN_B, getContent("bbbbbbbbbb")));
+
+        // A cache hit makes B the least recently used entry
+        cache.releaseArtifact(cache.getArtifact(MAVEN_A));
+        cache.flush();
+
+        cache = new MavenArtifactCache(cacheDir, 20);
+        cache.releaseArtifact(cache.addArtifact(MAVEN_C, getContent("cccccccccc")));
+        Assert.assertNull("Evicted", cache.getArtifact(MAVEN_B));
+        CacheEntry entryA = cache.getArtifact(MAVEN_A);
+        Assert.assertNotNull("Kept", entryA);
+        cache.releaseArtifact(entryA);
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        MavenArtifactCache cache = new MavenArtifactCache(cacheDir, 100);
+        CacheEntry entryA = cache.addArtifact(MAVEN_A, getContent("aaaaaaaaaa"));
+        Assert.assertNull(cache.getManifest(entryA.getDigest()));
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", "acme-a");
+        cache.putManifest(entryA.getDigest(), manifest);
+        cache.releaseArtifact(entryA);
+
+        // The manifest survives a new cache instance
+        cache = new MavenArtifactCache(cacheDir, 100);
+        Manifest cached = cache.getManifest(entryA.getDigest());
+        Assert.assertNotNull(cached);
+        Assert.assertEquals("acme-a", cached.getMainAttributes().getValue("Bundle-SymbolicName"));
+
+        // The manifest is removed with the content
+        Assert.assertTrue(cache.removeArtifact(MAVEN_A));
+        Assert.assertNull(cache.getManifest(entryA.getDigest()));
+    }
+
+    private ByteArrayInputStream getContent(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+
+    private File getFile(CacheEntry entry) throws Exception {
+        return new File(entry.getContentURL().toURI());
+    }
+}
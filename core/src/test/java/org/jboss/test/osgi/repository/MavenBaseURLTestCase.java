@@ -0,0 +1,544 @@
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.jboss.test.osgi.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.metadata.OSGiManifestBuilder;
+import org.jboss.osgi.metadata.OSGiMetaData;
+import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.spi.MavenArtifactCache;
+import org.jboss.osgi.repository.spi.MavenIdentityRepository;
+import org.jboss.osgi.repository.spi.MavenIdentityRepository.Configuration;
+import org.jboss.osgi.repository.spi.MavenIdentityRepository.ConfigurationPropertyProvider;
+import org.jboss.osgi.repository.spi.MavenMirrorStatistics;
+import org.jboss.osgi.resolver.MavenCoordinates;
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XIdentityCapability;
+import org.jboss.osgi.resolver.XRequirement;
+import org.jboss.osgi.resolver.XRequirementBuilder;
+import org.jboss.osgi.resolver.XResource;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.repository.module.a.Foo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.repository.ContentNamespace;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the {@link MavenIdentityRepository} against local base URLs
+ * and in-process HTTP servers.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class MavenBaseURLTestCase extends AbstractRepositoryTest {
+
+    static final MavenCoordinates MAVEN_ID = MavenCoordinates.parse("org.acme:acme-bundle:1.0.0");
+
+    private final List<HttpServer> servers = new ArrayList<HttpServer>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private File localRepo;
+
+    @Before
+    public void setUp() throws Exception {
+        localRepo = new File("./target/maven-local").getAbsoluteFile();
+        deleteRecursive(localRepo);
+        addArtifact("1.0.0");
+    }
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testLocalBaseURL() throws Exception {
+        XRepository repository = createRepository(localRepo.toURI().toURL());
+        verifyProviders(repository.findProviders(getRequirement()));
+    }
+
+    @Test
+    public void testLocalBaseURLWithSpace() throws Exception {
+        localRepo = new File("./target/maven local").getAbsoluteFile();
+        deleteRecursive(localRepo);
+        addArtifact("1.0.0");
+        addArtifact("1.5.0");
+        XRepository repository = createRepository(localRepo.toURI().toURL());
+        verifyProviders(repository.findProviders(getRequirement()));
+        verifyProviders(repository.findProviders(getRequirement("[1.0,2.0)")), "1.5.0");
+    }
+
+    @Test
+    public void testHttpBaseURL() throws Exception {
+        XRepository repository = createRepository(startServer(0, false), startServer(0, true));
+        verifyProviders(repository.findProviders(getRequirement()));
+    }
+
+    @Test
+    public void testHeadRequest() throws Exception {
+        XRepository repository = createRepository(startServer(0, true));
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("One HEAD request", 1, Collections.frequency(requests, "HEAD"));
+        assertEquals("One GET request", 1, Collections.frequency(requests, "GET"));
+    }
+
+    @Test
+    public void testArtifactCache() throws Exception {
+        File cacheDir = new File("./target/maven-cache").getAbsoluteFile();
+        deleteRecursive(cacheDir);
+        URL baseURL = startServer(0, true);
+        XRepository repository = createCachingRepository(cacheDir, baseURL);
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("Two requests", 2, requests.size());
+
+        // The content is served from the cache
+        Collection<Capability> caps = repository.findProviders(getRequirement());
+        verifyProviders(caps);
+        assertEquals("No more requests", 2, requests.size());
+        XResource resource = (XResource) caps.iterator().next().getResource();
+        XCapability ccap = (XCapability) resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE).get(0);
+        String contentURL = (String) ccap.getAttribute(ContentNamespace.CAPABILITY_URL_ATTRIBUTE);
+        assertTrue("Cached content: " + contentURL, contentURL.startsWith(cacheDir.toURI().toString()));
+        File manifestFile = new File(new File(new URL(contentURL).toURI()).getParentFile(), MavenArtifactCache.MANIFEST_NAME);
+        assertTrue("Cached manifest: " + manifestFile, manifestFile.isFile());
+
+        // The cache survives a new repository instance
+        repository = createCachingRepository(cacheDir, baseURL);
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("No more requests", 2, requests.size());
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(startServer(0, false));
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("One request", 1, requests.size());
+
+        // The miss is remembered
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("No more requests", 1, requests.size());
+
+        // Lookup again after invalidation
+        repository.invalidateNegativeCache(MAVEN_ID);
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("Two requests", 2, requests.size());
+    }
+
+    @Test
+    public void testNegativeCacheChecksLocalBaseURL() throws Exception {
+        localRepo = new File("./target/maven-empty").getAbsoluteFile();
+        deleteRecursive(localRepo);
+        localRepo.mkdirs();
+        XRepository repository = createRepository(localRepo.toURI().toURL(), startServer(0, false));
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("One request", 1, requests.size());
+
+        // An artifact that was installed locally is found despite the remembered miss
+        addArtifact("1.0.0");
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("No more requests", 1, requests.size());
+    }
+
+    @Test
+    public void testNoNegativeCacheOnError() throws Exception {
+        XRepository repository = createRepository(startServer(0, false), startFailingServer());
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("One failed request", 1, Collections.frequency(requests, "FAILED"));
+
+        // The failing base may have the artifact, so the miss is not remembered
+        assertEquals("No capability", 0, repository.findProviders(getRequirement()).size());
+        assertEquals("Two failed requests", 2, Collections.frequency(requests, "FAILED"));
+    }
+
+    @Test
+    public void testParallelProbing() throws Exception {
+        // Both servers only answer once both probes arrived, sequential probes would run into the read timeout
+        CountDownLatch barrier = new CountDownLatch(2);
+        URL slowA = startServer(barrier, barrier, false);
+        URL slowB = startServer(barrier, barrier, false);
+        MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(slowA, slowB, localRepo.toURI().toURL());
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("Two HEAD requests", 2, Collections.frequency(requests, "HEAD"));
+        for (MavenMirrorStatistics stats : repository.getMirrorStatistics()) {
+            assertEquals("No errors: " + stats, 0, stats.getErrorCount());
+        }
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        CountDownLatch arrived = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        URL hanging = startServer(arrived, release, true);
+        try {
+            MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(hanging, localRepo.toURI().toURL());
+            Collection<Capability> caps = repository.findProviders(getRequirement());
+            verifyProviders(caps);
+
+            // The hanging server would be taken first if its probe had not timed out
+            assertEquals("Probe arrived", 0, arrived.getCount());
+            assertTrue("Local content: " + getContentURL(caps), getContentURL(caps).startsWith(localRepo.toURI().toString()));
+            assertEquals("One error", 1, repository.getMirrorStatistics().get(0).getErrorCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testMirrorOrdering() throws Exception {
+        URL slow = startServer(800, true);
+        URL fast = startServer(0, true);
+        MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(slow, fast);
+        verifyProviders(repository.findProviders(getRequirement()));
+
+        // The fast mirror is probed first and its answer is taken without waiting for the slow one
+        Collection<Capability> caps = repository.findProviders(getRequirement());
+        verifyProviders(caps);
+        assertTrue("Fast mirror first: " + getContentURL(caps), getContentURL(caps).startsWith(fast.toString()));
+
+        List<MavenMirrorStatistics> stats = repository.getMirrorStatistics();
+        assertEquals("Two mirrors", 2, stats.size());
+        assertTrue("Slow mirror latency: " + stats.get(0), stats.get(0).getAverageLatency() > stats.get(1).getAverageLatency());
+    }
+
+    @Test
+    public void testFailingMirror() throws Exception {
+        URL failing = startFailingServer();
+        URL healthy = startServer(0, true);
+        MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(failing, healthy);
+        MavenMirrorStatistics stats = repository.getMirrorStatistics().get(0);
+        assertEquals(failing, stats.getBaseURL());
+        for (int i = 0; i < 20 && !stats.isCircuitOpen(); i++) {
+            verifyProviders(repository.findProviders(getRequirement()));
+            Thread.sleep(50);
+        }
+        assertTrue("Circuit open", stats.isCircuitOpen());
+        assertTrue("Three errors", stats.getErrorCount() >= 3);
+
+        // The failing mirror is skipped
+        int failed = Collections.frequency(requests, "FAILED");
+        for (int i = 0; i < 3; i++) {
+            verifyProviders(repository.findProviders(getRequirement()));
+        }
+        assertEquals("Failing mirror skipped", failed, Collections.frequency(requests, "FAILED"));
+        assertEquals("No errors", 0, repository.getMirrorStatistics().get(1).getErrorCount());
+    }
+
+    @Test
+    public void testVersionRange() throws Exception {
+        addArtifact("1.5.0");
+        addArtifact("2.0.0");
+        XRepository repository = createRepository(localRepo.toURI().toURL());
+        verifyProviders(repository.findProviders(getRequirement("[1.0,2.0)")), "1.5.0");
+        verifyProviders(repository.findProviders(getRequirement("[1.0,1.5)")), "1.0.0");
+        verifyProviders(repository.findProviders(getRequirement("[1.0,)")), "2.0.0");
+        assertEquals("No capability", 0, repository.findProviders(getRequirement("[3.0,4.0)")).size());
+    }
+
+    @Test
+    public void testVersionRangeQualifiers() throws Exception {
+        addArtifact("2.0.0");
+        addArtifact("2.0-RC1", "2.0.0.RC1");
+        addArtifact("2.0-SNAPSHOT", "2.0.0.SNAPSHOT");
+        XRepository repository = createRepository(localRepo.toURI().toURL());
+
+        // The release is higher than its release candidate and snapshot
+        verifyProviders(repository.findProviders(getRequirement("[1.0,)")), "2.0.0");
+        verifyProviders(repository.findProviders(getRequirement("[1.0,2.0.0)")), "2.0.0.SNAPSHOT");
+    }
+
+    @Test
+    public void testVersionRangeMetadata() throws Exception {
+        addArtifact("1.5.0");
+        File metadataFile = new File(localRepo, "org/acme/acme-bundle/maven-metadata.xml");
+        PrintWriter writer = new PrintWriter(metadataFile, "UTF-8");
+        try {
+            writer.println("<metadata><groupId>org.acme</groupId><artifactId>acme-bundle</artifactId><versioning>");
+            writer.println("<latest>1.5.0</latest><release>1.5.0</release>");
+            writer.println("<versions><version>1.0.0</version><version>1.5.0</version></versions>");
+            writer.println("</versioning></metadata>");
+        } finally {
+            writer.close();
+        }
+        XRepository repository = createRepository(startServer(0, true));
+        verifyProviders(repository.findProviders(getRequirement("[1.0,2.0)")), "1.5.0");
+        assertEquals("No revalidation", 0, Collections.frequency(requests, "NOT_MODIFIED"));
+
+        // Expired metadata is revalidated with a conditional request
+        verifyProviders(repository.findProviders(getRequirement("[1.0,1.5)")), "1.0.0");
+        assertEquals("One revalidation", 1, Collections.frequency(requests, "NOT_MODIFIED"));
+    }
+
+    @Test
+    public void testParallelBatch() throws Exception {
+        addArtifact("1.5.0");
+        addArtifact("2.0.0");
+        // The server only answers once all probes arrived, sequential lookups would run into the read timeout
+        CountDownLatch barrier = new CountDownLatch(3);
+        MavenIdentityRepository repository = (MavenIdentityRepository) createRepository(startServer(barrier, barrier, true));
+        List<XRequirement> reqs = Arrays.asList(getRequirement("2.0.0"), getRequirement("1.0.0"), getRequirement("1.5.0"));
+        Map<Requirement, Collection<Capability>> result = repository.findProviders(reqs);
+        assertEquals("No errors", 0, repository.getMirrorStatistics().get(0).getErrorCount());
+        assertEquals(reqs, new ArrayList<Requirement>(result.keySet()));
+        verifyProviders(result.get(reqs.get(0)), "2.0.0");
+        verifyProviders(result.get(reqs.get(1)), "1.0.0");
+        verifyProviders(result.get(reqs.get(2)), "1.5.0");
+    }
+
+    @Test
+    public void testMetaDataCache() throws Exception {
+        final List<URL> urls = Collections.singletonList(localRepo.toURI().toURL());
+        Configuration configuration = new Configuration() {
+            @Override
+            public List<URL> getBaseURLs() {
+                return urls;
+            }
+        };
+        final AtomicInteger metadataLoads = new AtomicInteger();
+        XRepository repository = new MavenIdentityRepository(configuration) {
+            @Override
+            protected OSGiMetaData getOSGiMetaData(XResource resource) throws IOException {
+                metadataLoads.incrementAndGet();
+                return super.getOSGiMetaData(resource);
+            }
+        };
+        verifyProviders(repository.findProviders(getRequirement()));
+        verifyProviders(repository.findProviders(getRequirement()));
+        assertEquals("Metadata loaded once", 1, metadataLoads.get());
+    }
+
+    XRepository createRepository(URL... baseURLs) {
+        return createCachingRepository(null, baseURLs);
+    }
+
+    XRepository createCachingRepository(final File cacheDir, URL... baseURLs) {
+        final List<URL> urls = Arrays.asList(baseURLs);
+        Configuration configuration = new Configuration() {
+            @Override
+            public List<URL> getBaseURLs() {
+                return urls;
+            }
+        };
+        ConfigurationPropertyProvider provider = new ConfigurationPropertyProvider() {
+            @Override
+            public String getProperty(String key, String defaultValue) {
+                if (XRepository.PROPERTY_MAVEN_REPOSITORY_READ_TIMEOUT.equals(key))
+                    return "1000";
+                if (XRepository.PROPERTY_MAVEN_REPOSITORY_METADATA_TTL.equals(key))
+                    return "0";
+                if (XRepository.PROPERTY_MAVEN_REPOSITORY_CACHE_DIR.equals(key) && cacheDir != null)
+                    return cacheDir.getPath();
+                return defaultValue;
+            }
+        };
+        return new MavenIdentityRepository(configuration, provider);
+    }
+
+    XRequirement getRequirement() {
+        return XRequirementBuilder.create(MAVEN_ID).getRequirement();
+    }
+
+    XRequirement getRequirement(String version) {
+        MavenCoordinates mavenId = MavenCoordinates.create(MAVEN_ID.getGroupId(), MAVEN_ID.getArtifactId(), version, null, null);
+        return XRequirementBuilder.create(mavenId).getRequirement();
+    }
+
+    void verifyProviders(Collection<Capability> caps) {
+        verifyProviders(caps, "1.0.0");
+    }
+
+    void verifyProviders(Collection<Capability> caps, String version) {
+        assertEquals("One capability", 1, caps.size());
+        XIdentityCapability icap = (XIdentityCapability) caps.iterator().next();
+        assertEquals("acme-bundle", icap.getName());
+        assertEquals(Version.parseVersion(version), icap.getVersion());
+    }
+
+    String getContentURL(Collection<Capability> caps) {
+        XResource resource = (XResource) caps.iterator().next().getResource();
+        XCapability ccap = (XCapability) resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE).get(0);
+        return (String) ccap.getAttribute(ContentNamespace.CAPABILITY_URL_ATTRIBUTE);
+    }
+
+    void addArtifact(String version) throws Exception {
+        addArtifact(version, version);
+    }
+
+    void addArtifact(String version, String bundleVersion) throws Exception {
+        MavenCoordinates mavenId = MavenCoordinates.create(MAVEN_ID.getGroupId(), MAVEN_ID.getArtifactId(), version, null, null);
+        File artifactFile = new File(mavenId.getArtifactURL(localRepo.toURI().toURL()).toURI());
+        artifactFile.getParentFile().mkdirs();
+        getBundleArchive(bundleVersion).as(ZipExporter.class).exportTo(artifactFile, true);
+    }
+
+    /**
+     * Start an HTTP server that delays every response and then either serves
+     * the local repository content or answers with 404.
+     */
+    URL startServer(final long delay, final boolean serveContent) throws IOException {
+        return startServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                serve(exchange, serveContent);
+            }
+        });
+    }
+
+    /**
+     * Start an HTTP server that counts down the arrived latch for every HEAD request
+     * and holds the request until the release latch is open. Passing the same latch
+     * for both holds the requests until the given number of them arrived.
+     */
+    URL startServer(final CountDownLatch arrived, final CountDownLatch release, final boolean serveContent) throws IOException {
+        return startServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    arrived.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                serve(exchange, serveContent);
+            }
+        });
+    }
+
+    private URL startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        servers.add(server);
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Serve the local repository content or answer with 404
+     */
+    private void serve(HttpExchange exchange, boolean serveContent) throws IOException {
+        requests.add(exchange.getRequestMethod());
+        File file = new File(localRepo, exchange.getRequestURI().getPath());
+        if (!serveContent || !file.isFile()) {
+            exchange.sendResponseHeaders(404, -1);
+        } else if (exchange.getRequestHeaders().getFirst("If-Modified-Since") != null) {
+            requests.add("NOT_MODIFIED");
+            exchange.sendResponseHeaders(304, -1);
+        } else if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            exchange.getResponseHeaders().set("Last-Modified", format.format(new Date(file.lastModified())));
+            exchange.sendResponseHeaders(200, file.length());
+            OutputStream output = exchange.getResponseBody();
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[4096];
+                int len;
+                while ((len = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, len);
+                }
+            } finally {
+                input.close();
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * Start an HTTP server that answers every request with 500.
+     */
+    URL startFailingServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add("FAILED");
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    private JavaArchive getBundleArchive(final String version) {
+        final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "acme-bundle");
+        archive.addClasses(Foo.class);
+        archive.setManifest(new Asset() {
+            @Override
+            public InputStream openStream() {
+                OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+                builder.addBundleManifestVersion(2);
+                builder.addBundleSymbolicName(archive.getName());
+                builder.addBundleVersion(version);
+                builder.addExportPackages(Foo.class);
+                return builder.openStream();
+            }
+        });
+        return archive;
+    }
+}
@@ -0,0 +1,71 @@
+package org.jboss.test.osgi.repository;
+/*
+ * #%L
+ * JBossOSGi Repository
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import junit.framework.Assert;
+
+import org.jboss.osgi.repository.spi.MavenComparableVersion;
+import org.jboss.osgi.repository.spi.MavenVersionRange;
+import org.junit.Test;
+
+/**
+ * Test the {@link MavenVersionRange} and the {@link MavenComparableVersion} ordering.
+ *
+ * @author agent@local
+ * @since 19-Oct-2026
+ */
+public class MavenVersionRangeTestCase extends AbstractRepositoryTest {
+
+    @Test
+    public void testQualifiersSortBeforeRelease() throws Exception {
+        assertLess("2.0-RC1", "2.0");
+        assertLess("2.0-SNAPSHOT", "2.0");
+        assertLess("1.0-alpha-1", "1.0");
+        assertLess("2.0-alpha-1", "2.0-beta-1");
+        assertLess("2.0-beta-1", "2.0-M1");
+        assertLess("2.0-M1", "2.0-RC1");
+        assertLess("2.0-RC1", "2.0-SNAPSHOT");
+        assertLess("2.0", "2.0-sp1");
+        assertLess("2.0", "2.0.1");
+        assertLess("2.0.1", "10.0");
+        Assert.assertEquals(0, new MavenComparableVersion("2.0").compareTo(new MavenComparableVersion("2.0.0")));
+        Assert.assertEquals(0, new MavenComparableVersion("2.0.Final").compareTo(new MavenComparableVersion("2.0")));
+    }
+
+    @Test
+    public void testRangeBounds() throws Exception {
+        MavenVersionRange range = MavenVersionRange.parse("[1.0,2.0)");
+        Assert.assertFalse("1.0-alpha-1 is below 1.0", range.includes("1.0-alpha-1"));
+        Assert.assertTrue(range.includes("1.0"));
+        Assert.assertTrue(range.includes("1.5"));
+        Assert.assertFalse(range.includes("2.0"));
+
+        range = MavenVersionRange.parse("[1.0,)");
+        Assert.assertTrue(range.includes("2.0-RC1"));
+        Assert.assertTrue(range.includes("2.0"));
+    }
+
+    private void assertLess(String lower, String higher) {
+        MavenComparableVersion v1 = new MavenComparableVersion(lower);
+        MavenComparableVersion v2 = new MavenComparableVersion(higher);
+        Assert.assertTrue(lower + " < " + higher, v1.compareTo(v2) < 0);
+        Assert.assertTrue(higher + " > " + lower, v2.compareTo(v1) > 0);
+    }
+}
@@ -19,22 +19,37 @@ package org.jboss.test.osgi.repository;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
 
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.repository.RepositoryChanges;
+import org.jboss.osgi.repository.RepositoryQueryResult;
 import org.jboss.osgi.repository.RepositoryReader;
-import org.jboss.osgi.repository.RepositoryStorage;
+import org.jboss.osgi.repository.RepositoryStorageException;
+import org.jboss.osgi.repository.RepositoryStorageListener;
 import org.jboss.osgi.repository.XRepository;
+import org.jboss.osgi.repository.XRepositoryStorage;
+import org.jboss.osgi.repository.spi.BloomFilter;
 import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
+import org.jboss.osgi.resolver.MavenCoordinates;
 import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XRequirementBuilder;
 import org.jboss.osgi.resolver.XResource;
+import org.jboss.osgi.resolver.XResourceBuilder;
+import org.jboss.osgi.resolver.XResourceBuilderFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.resource.Capability;
 
 /**
@@ -45,7 +60,7 @@ import org.osgi.resource.Capability;
  */
 public class MemoryRepositoryStorageTestCase extends AbstractRepositoryTest {
 
-    private RepositoryStorage storage;
+    private XRepositoryStorage storage;
 
     @Before
     public void setUp() throws Exception {
@@ -84,5 +99,249 @@ public class MemoryRepositoryStorageTestCase extends AbstractRepositoryTest {
         Collection<Capability> providers = storage.findProviders(req);
         Assert.assertNotNull("Providers not null", providers);
         Assert.assertEquals("One provider", 1, providers.size());
+
+        // The capabilities with the filter value still have to match the whole filter
+        builder = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE);
+        builder.getDirectives().put(BundleNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(&(osgi.wiring.bundle=org.acme.pool)(bundle-version>=9.0))");
+        req = builder.getRequirement();
+        Assert.assertEquals("No provider", 0, storage.findProviders(req).size());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+
+        XRequirement req = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE, "org.acme.pool").getRequirement();
+        XRepositoryStorage snapshot = storage.snapshot();
+        Assert.assertEquals("1", snapshot.getRepositoryReader().getRepositoryAttributes().get("increment"));
+
+        // The snapshot does not see the removal
+        XResource resource = storage.getRepositoryReader().nextResource();
+        Assert.assertTrue("Resource removed", storage.removeResource(resource));
+        Assert.assertEquals("No provider", 0, storage.findProviders(req).size());
+        Assert.assertEquals("2", storage.getRepositoryReader().getRepositoryAttributes().get("increment"));
+
+        Collection<Capability> providers = snapshot.findProviders(req);
+        Assert.assertEquals("One provider", 1, providers.size());
+        Assert.assertSame(resource, ((XCapability) providers.iterator().next()).getResource());
+        Assert.assertSame(resource, snapshot.getResource(resource.getIdentityCapability()));
+
+        try {
+            snapshot.addResource(resource);
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangesSince() throws Exception {
+
+        XResource resource = storage.getRepositoryReader().nextResource();
+        RepositoryChanges changes = storage.getChangesSince(0);
+        Assert.assertEquals(1, changes.getToIncrement());
+        Assert.assertEquals(Collections.singletonList(resource), changes.getAddedResources());
+        Assert.assertTrue("No changes", storage.getChangesSince(1).isEmpty());
+
+        final List<RepositoryChanges> events = new ArrayList<RepositoryChanges>();
+        storage.addStorageListener(new RepositoryStorageListener() {
+            @Override
+            public void storageChanged(RepositoryChanges changes) {
+                events.add(changes);
+            }
+        });
+
+        storage.removeResource(resource);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(Collections.singletonList(resource), events.get(0).getRemovedResources());
+        Assert.assertEquals(Collections.singletonList(resource), storage.getChangesSince(1).getRemovedResources());
+
+        // A resource that was added and removed again is not reported
+        changes = storage.getChangesSince(0);
+        Assert.assertEquals(2, changes.getToIncrement());
+        Assert.assertTrue("No changes", changes.isEmpty());
+
+        // Changes that were trimmed from the log require a resync
+        for (int i = 0; i < MemoryRepositoryStorage.CHANGE_LOG_SIZE / 2; i++) {
+            storage.addResource(resource);
+            storage.removeResource(resource);
+        }
+        Assert.assertTrue("Resync required", storage.getChangesSince(0).isResyncRequired());
+        Assert.assertFalse("Resync not required", storage.getChangesSince(10).isResyncRequired());
+    }
+
+    @Test
+    public void testAddResourcesAsOneChange() throws Exception {
+
+        final List<RepositoryChanges> events = new ArrayList<RepositoryChanges>();
+        storage.addStorageListener(new RepositoryStorageListener() {
+            @Override
+            public void storageChanged(RepositoryChanges changes) {
+                events.add(changes);
+            }
+        });
+
+        List<XResource> resources = new ArrayList<XResource>();
+        for (String name : new String[] { "org.acme.a", "org.acme.b", "org.acme.c" }) {
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addIdentityCapability(ModuleIdentifier.create(name));
+            resources.add(builder.getResource());
+        }
+        Assert.assertEquals(3, storage.addResources(resources).size());
+
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(1, events.get(0).getFromIncrement());
+        Assert.assertEquals(2, events.get(0).getToIncrement());
+        Assert.assertEquals(resources, events.get(0).getAddedResources());
+        Assert.assertEquals(resources, storage.getChangesSince(1).getAddedResources());
+        Assert.assertEquals(2, storage.getNamespaceIncrement(IdentityNamespace.IDENTITY_NAMESPACE));
+    }
+
+    @Test
+    public void testAddResourcesFailsAsAWhole() throws Exception {
+
+        final List<RepositoryChanges> events = new ArrayList<RepositoryChanges>();
+        storage.addStorageListener(new RepositoryStorageListener() {
+            @Override
+            public void storageChanged(RepositoryChanges changes) {
+                events.add(changes);
+            }
+        });
+
+        List<XResource> resources = new ArrayList<XResource>();
+        XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+        builder.addIdentityCapability(ModuleIdentifier.create("org.acme.a"));
+        resources.add(builder.getResource());
+        builder = XResourceBuilderFactory.create();
+        builder.addIdentityCapability(MavenCoordinates.parse("org.acme:acme-maven:1.0.0"));
+        resources.add(builder.getResource());
+        try {
+            storage.addResources(resources);
+            Assert.fail("RepositoryStorageException expected");
+        } catch (RepositoryStorageException ex) {
+            // expected
+        }
+
+        // Nothing of the batch was published
+        Assert.assertTrue("No events", events.isEmpty());
+        Assert.assertTrue("No changes", storage.getChangesSince(1).isEmpty());
+        Assert.assertEquals("1", storage.getRepositoryReader().getRepositoryAttributes().get("increment"));
+        XRequirement req = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE, "org.acme.a").getRequirement();
+        Assert.assertTrue("No providers", storage.findProviders(req).isEmpty());
+    }
+
+    @Test
+    public void testConditionalQuery() throws Exception {
+
+        XRequirement req = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE, "org.acme.pool").getRequirement();
+        List<XRequirement> reqs = Collections.singletonList(req);
+        RepositoryQueryResult result = storage.findProviders(reqs, -1);
+        Assert.assertTrue("Modified", result.isModified());
+        Assert.assertEquals("One provider", 1, result.getProviders().get(req).size());
+
+        result = storage.findProviders(reqs, result.getIncrement());
+        Assert.assertFalse("Not modified", result.isModified());
+        Assert.assertNull("No providers", result.getProviders());
+
+        // A change in another namespace does not modify the result
+        XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+        builder.addIdentityCapability(ModuleIdentifier.create("org.acme.module"));
+        storage.addResource(builder.getResource());
+        Assert.assertEquals(2, storage.getNamespaceIncrement(IdentityNamespace.IDENTITY_NAMESPACE));
+        result = storage.findProviders(reqs, result.getIncrement());
+        Assert.assertFalse("Not modified", result.isModified());
+        Assert.assertEquals(2, result.getIncrement());
+
+        XResource resource = ((XCapability) storage.findProviders(req).iterator().next()).getResource();
+        storage.removeResource(resource);
+        result = storage.findProviders(reqs, result.getIncrement());
+        Assert.assertTrue("Modified", result.isModified());
+        Assert.assertEquals("No provider", 0, result.getProviders().get(req).size());
+    }
+
+    @Test
+    public void testIterateProviders() throws Exception {
+
+        for (String name : new String[] { "org.acme.a", "org.acme.b", "org.acme.c" }) {
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addIdentityCapability(ModuleIdentifier.create(name));
+            storage.addResource(builder.getResource());
+        }
+
+        XRequirementBuilder builder = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE);
+        builder.getDirectives().put(IdentityNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(osgi.identity=org.acme.*)");
+        XRequirement req = builder.getRequirement();
+        Assert.assertEquals(4, count(storage.iterateProviders(req, 0, -1)));
+        Assert.assertEquals(2, count(storage.iterateProviders(req, 1, 2)));
+        Assert.assertEquals(1, count(storage.iterateProviders(req, 3, 5)));
+        Assert.assertEquals(0, count(storage.iterateProviders(req, 4, -1)));
+        Assert.assertEquals(0, count(storage.iterateProviders(req, 0, 0)));
+
+        // A filter for a single value only visits that value and matches like findProviders
+        builder = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE);
+        builder.getDirectives().put(BundleNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(&(osgi.wiring.bundle=org.acme.pool)(bundle-version>=9.0))");
+        Assert.assertEquals(0, count(storage.iterateProviders(builder.getRequirement(), 0, -1)));
+        builder = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE);
+        builder.getDirectives().put(BundleNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(osgi.wiring.bundle=org.acme.pool)");
+        req = builder.getRequirement();
+        Assert.assertEquals(storage.findProviders(req).size(), count(storage.iterateProviders(req, 0, -1)));
+        Iterator<Capability> iterator = storage.iterateProviders(req, 0, -1);
+        Assert.assertTrue("Has next", iterator.hasNext());
+        Assert.assertEquals(BundleNamespace.BUNDLE_NAMESPACE, iterator.next().getNamespace());
+        Assert.assertFalse("No next", iterator.hasNext());
+        try {
+            iterator.next();
+            Assert.fail("NoSuchElementException expected");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testManyValues() throws Exception {
+
+        List<XResource> resources = new ArrayList<XResource>();
+        for (int i = 0; i < 500; i++) {
+            XResourceBuilder<XResource> builder = XResourceBuilderFactory.create();
+            builder.addIdentityCapability(ModuleIdentifier.create("org.acme.module" + i));
+            resources.add(builder.getResource());
+        }
+        Assert.assertEquals(500, storage.addResources(resources).size());
+
+        XRequirementBuilder builder = XRequirementBuilder.create(IdentityNamespace.IDENTITY_NAMESPACE);
+        builder.getDirectives().put(IdentityNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(osgi.identity=org.acme.module*)");
+        XRequirement all = builder.getRequirement();
+        Assert.assertEquals(500, storage.findProviders(all).size());
+
+        // Every other resource is removed from a snapshot that still sees all of them
+        XRepositoryStorage snapshot = storage.snapshot();
+        for (int i = 0; i < 500; i += 2) {
+            Assert.assertTrue("Resource removed", storage.removeResource(resources.get(i)));
+        }
+        Assert.assertEquals(250, storage.findProviders(all).size());
+        Assert.assertEquals(250, count(storage.iterateProviders(all, 0, -1)));
+        Assert.assertEquals(500, snapshot.findProviders(all).size());
+        for (int i = 0; i < 500; i++) {
+            XResource resource = resources.get(i);
+            XResource expected = i % 2 == 0 ? null : resource;
+            Assert.assertSame(expected, storage.getResource(resource.getIdentityCapability()));
+            Assert.assertSame(resource, snapshot.getResource(resource.getIdentityCapability()));
+        }
+    }
+
+    @Test
+    public void testNamespaceValueFilter() throws Exception {
+
+        BloomFilter filter = ((MemoryRepositoryStorage) storage).getNamespaceValueFilter(BundleNamespace.BUNDLE_NAMESPACE);
+        Assert.assertTrue("Contains org.acme.pool", filter.mightContain("org.acme.pool"));
+        Assert.assertFalse("Does not contain org.acme.other", filter.mightContain("org.acme.other"));
+    }
+
+    private int count(Iterator<Capability> iterator) {
+        int result = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            result++;
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
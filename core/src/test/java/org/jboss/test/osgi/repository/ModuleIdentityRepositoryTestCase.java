@@ -20,11 +20,17 @@
 package org.jboss.test.osgi.repository;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.osgi.metadata.OSGiManifestBuilder;
 import org.jboss.osgi.repository.RepositoryStorage;
@@ -32,7 +38,9 @@ import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.repository.spi.FileBasedRepositoryStorage;
 import org.jboss.osgi.repository.spi.MavenIdentityRepository.ConfigurationPropertyProvider;
 import org.jboss.osgi.repository.spi.ModuleIdentityRepository;
+import org.jboss.osgi.repository.spi.ModuleRootIndexer;
 import org.jboss.osgi.resolver.MavenCoordinates;
+import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XIdentityCapability;
 import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XRequirementBuilder;
@@ -46,6 +54,7 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.Version;
 import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.service.repository.ContentNamespace;
 
@@ -122,6 +131,12 @@ public class ModuleIdentityRepositoryTestCase extends AbstractRepositoryTest {
         // Verify that we have a moduleId attribute 
         assertEquals(moduleId.toString(), icap.getAttribute(XResource.MODULE_IDENTITY_NAMESPACE));
 
+        // Verify that the package with classes is exported
+        caps = resource.getCapabilities(PackageNamespace.PACKAGE_NAMESPACE);
+        assertEquals("One capability", 1, caps.size());
+        XCapability pcap = (XCapability) caps.iterator().next();
+        assertEquals(Foo.class.getPackage().getName(), pcap.getAttribute(PackageNamespace.PACKAGE_NAMESPACE));
+
         // Add the resource to storage and verify again
         resource = storage.addResource(resource);
         caps = resource.getCapabilities(ContentNamespace.CONTENT_NAMESPACE);
@@ -137,6 +152,54 @@ public class ModuleIdentityRepositoryTestCase extends AbstractRepositoryTest {
         assertEquals(moduleId.toString(), icap.getAttribute(XResource.MODULE_IDENTITY_NAMESPACE));
     }
 
+    @Test
+    public void testCachedModuleResource() throws Exception {
+        ModuleIdentifier moduleId = addModuleSpec(moduleLoader, getModuleB());
+        XRequirement req = XRequirementBuilder.create(moduleId).getRequirement();
+        Collection<Capability> caps = repository.findProviders(req);
+        assertEquals("One capability", 1, caps.size());
+        XResource resource = ((XCapability) caps.iterator().next()).getResource();
+
+        // The resource is reused while the module is not reloaded
+        caps = repository.findProviders(req);
+        assertEquals("One capability", 1, caps.size());
+        assertSame(resource, ((XCapability) caps.iterator().next()).getResource());
+
+        ((ModuleIdentityRepository) repository).invalidateModule(moduleId);
+        caps = repository.findProviders(req);
+        assertEquals("One capability", 1, caps.size());
+        assertNotSame(resource, ((XCapability) caps.iterator().next()).getResource());
+    }
+
+    @Test
+    public void testModuleRootIndexer() throws Exception {
+        addModuleSpec(moduleLoader, getModuleA());
+        addModuleSpec(moduleLoader, getModuleB());
+
+        // A module root with a module that cannot be loaded
+        File moduleRoot = new File("./target/modules");
+        deleteRecursive(moduleRoot);
+        for (String path : new String[] { "moduleA/main", "moduleB/main", "moduleC/main" }) {
+            File moduleDir = new File(moduleRoot, path);
+            moduleDir.mkdirs();
+            new File(moduleDir, ModuleRootIndexer.MODULE_XML_NAME).createNewFile();
+        }
+
+        List<ModuleIdentifier> moduleIds = ModuleRootIndexer.findModuleIdentifiers(moduleRoot);
+        assertEquals(Arrays.asList(ModuleIdentifier.create("moduleA"), ModuleIdentifier.create("moduleB"), ModuleIdentifier.create("moduleC")), moduleIds);
+
+        ModuleRootIndexer indexer = new ModuleRootIndexer((ModuleIdentityRepository) repository, storage, moduleRoot);
+        assertEquals(new Integer(2), indexer.start().get(10, TimeUnit.SECONDS));
+
+        // The packages of both modules can be found without a module identity requirement
+        XRequirement req = XRequirementBuilder.create(PackageNamespace.PACKAGE_NAMESPACE, Foo.class.getPackage().getName()).getRequirement();
+        Collection<Capability> caps = storage.findProviders(req);
+        assertEquals("Two capabilities", 2, caps.size());
+
+        // Indexed modules are not added again
+        assertEquals(0, indexer.index());
+    }
+
     @Test
     public void testFindProvidersFails() throws Exception {
         MavenCoordinates mavenid = MavenCoordinates.parse("foo:bar:1.2.8");
@@ -24,23 +24,40 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
 import junit.framework.Assert;
 
+import org.jboss.osgi.metadata.OSGiManifestBuilder;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.metadata.OSGiMetaDataBuilder;
+import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryStorage;
 import org.jboss.osgi.repository.RepositoryStorageFactory;
 import org.jboss.osgi.repository.XPersistentRepository;
 import org.jboss.osgi.repository.XRepository;
 import org.jboss.osgi.repository.spi.AbstractPersistentRepository;
+import org.jboss.osgi.repository.spi.AbstractRepository;
 import org.jboss.osgi.repository.spi.FileBasedRepositoryStorage;
 import org.jboss.osgi.repository.spi.MavenIdentityRepository;
+import org.jboss.osgi.repository.spi.MavenIdentityRepository.Configuration;
+import org.jboss.osgi.repository.spi.MemoryRepositoryStorage;
 import org.jboss.osgi.repository.spi.MavenIdentityRepository.ConfigurationPropertyProvider;
 import org.jboss.osgi.resolver.MavenCoordinates;
 import org.jboss.osgi.resolver.XCapability;
@@ -48,14 +65,21 @@ import org.jboss.osgi.resolver.XIdentityCapability;
 import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XRequirementBuilder;
 import org.jboss.osgi.resolver.XResource;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.repository.module.a.Foo;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
+import org.osgi.framework.namespace.BundleNamespace;
 import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
 import org.osgi.service.repository.ContentNamespace;
 import org.osgi.service.repository.RepositoryContent;
 
@@ -67,14 +91,17 @@ import org.osgi.service.repository.RepositoryContent;
  */
 public class PersistentRepositoryTestCase extends AbstractRepositoryTest {
 
+    static final MavenCoordinates LOCAL_MAVEN_ID = MavenCoordinates.parse("org.acme:acme-bundle:1.0.0");
+
     private XPersistentRepository repository;
+    private RepositoryStorageFactory storageFactory;
     private File storageDir;
 
     @Before
     public void setUp() throws IOException {
         storageDir = new File("./target/repository");
         deleteRecursive(storageDir);
-        RepositoryStorageFactory storageFactory = new RepositoryStorageFactory() {
+        storageFactory = new RepositoryStorageFactory() {
             public RepositoryStorage create(XRepository repository) {
                 return new FileBasedRepositoryStorage(repository, storageDir, Mockito.mock(ConfigurationPropertyProvider.class));
             }
@@ -111,6 +138,221 @@ public class PersistentRepositoryTestCase extends AbstractRepositoryTest {
         verifyCapability(cap);
     }
 
+    @Test
+    public void testFindProvidersAsync() throws Exception {
+
+        MavenCoordinates mavenid = MavenCoordinates.parse("org.apache.felix:org.apache.felix.configadmin:1.2.8");
+        XRequirement req = XRequirementBuilder.create(mavenid).getRequirement();
+        AbstractRepository async = (AbstractRepository) repository;
+        Future<Collection<Capability>> future = async.findProvidersAsync(req);
+        Collection<Capability> caps = future.get(60, TimeUnit.SECONDS);
+        assertEquals("One capability", 1, caps.size());
+        verifyCapability((XCapability) caps.iterator().next());
+
+        // The provider is in storage now
+        future = async.findProvidersAsync(req);
+        Assert.assertTrue("Completed immediately", future.isDone());
+        assertEquals("One capability", 1, future.get().size());
+    }
+
+    @Test
+    public void testNamespaceRouting() throws Exception {
+
+        final List<String> lookups = new ArrayList<String>();
+        XPersistentRepository repository = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory());
+        repository.addRepositoryDelegate(new MavenIdentityRepository(getLocalMavenConfiguration(), getLocalMavenProperties()) {
+            @Override
+            public Collection<Capability> findProviders(Requirement req) {
+                lookups.add("maven");
+                return super.findProviders(req);
+            }
+        });
+        repository.addRepositoryDelegate(new AbstractRepository() {
+            @Override
+            public Collection<Capability> findProviders(Requirement req) {
+                lookups.add("any");
+                return Collections.emptyList();
+            }
+        });
+
+        XRequirement req = XRequirementBuilder.create(PackageNamespace.PACKAGE_NAMESPACE, "org.acme.foo").getRequirement();
+        assertEquals("No capability", 0, repository.findProviders(req).size());
+        assertEquals(Arrays.asList("any"), lookups);
+
+        lookups.clear();
+        MavenCoordinates mavenid = MavenCoordinates.parse("org.acme:acme-missing:1.0.0");
+        req = XRequirementBuilder.create(mavenid).getRequirement();
+        repository.findProviders(req);
+        assertEquals(Arrays.asList("maven", "any"), lookups);
+    }
+
+    @Test
+    public void testNamespaceValueFilter() throws Exception {
+
+        final AtomicInteger indexLookups = new AtomicInteger();
+        XPersistentRepository index = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory()) {
+            @Override
+            public Collection<Capability> findProviders(Requirement req) {
+                indexLookups.incrementAndGet();
+                return super.findProviders(req);
+            }
+        };
+        RepositoryReader reader = getRepositoryReader("xml/sample-repository.xml");
+        index.adapt(RepositoryStorage.class).addResource(reader.nextResource());
+
+        XPersistentRepository repository = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory());
+        repository.addRepositoryDelegate(index);
+
+        XRequirement req = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE, "org.acme.pool").getRequirement();
+        assertEquals("One capability", 1, repository.findProviders(req).size());
+        assertEquals("One index lookup", 1, indexLookups.get());
+
+        // The index is skipped for values it does not have
+        req = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE, "org.acme.other").getRequirement();
+        assertEquals("No capability", 0, repository.findProviders(req).size());
+        assertEquals("One index lookup", 1, indexLookups.get());
+    }
+
+    @Test
+    public void testWriteBehindImport() throws Exception {
+
+        final AtomicInteger indexLookups = new AtomicInteger();
+        XPersistentRepository index = new AbstractPersistentRepository(new MemoryRepositoryStorage.Factory()) {
+            @Override
+            public Collection<Capability> findProviders(Requirement req) {
+                indexLookups.incrementAndGet();
+                return super.findProviders(req);
+            }
+        };
+        RepositoryReader reader = getRepositoryReader("xml/sample-repository.xml");
+        index.adapt(RepositoryStorage.class).addResource(reader.nextResource());
+
+        // A storage that imports once the test opens the gate
+        final CountDownLatch importGate = new CountDownLatch(1);
+        AbstractPersistentRepository repository = new AbstractPersistentRepository(new RepositoryStorageFactory() {
+            @Override
+            public RepositoryStorage create(XRepository repository) {
+                return new MemoryRepositoryStorage(repository) {
+                    @Override
+                    public XResource addResource(XResource res) {
+                        try {
+                            importGate.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.addResource(res);
+                    }
+                };
+            }
+        });
+        repository.addRepositoryDelegate(index);
+        repository.setWriteBehindImport(true);
+
+        XRequirement req = XRequirementBuilder.create(BundleNamespace.BUNDLE_NAMESPACE, "org.acme.pool").getRequirement();
+        assertEquals("One capability", 1, repository.findProviders(req).size());
+        RepositoryStorage storage = repository.adapt(RepositoryStorage.class);
+        assertEquals("Import is asynchronous", 0, storage.findProviders(req).size());
+        Assert.assertFalse("Import pending", repository.awaitPendingImports(0, TimeUnit.SECONDS));
+
+        // A lookup that races with the pending import is not delegated again
+        assertEquals("One capability", 1, repository.findProviders(req).size());
+        assertEquals("One index lookup", 1, indexLookups.get());
+
+        importGate.countDown();
+        Assert.assertTrue("Import completed", repository.awaitPendingImports(10, TimeUnit.SECONDS));
+        assertEquals("One capability", 1, storage.findProviders(req).size());
+    }
+
+    @Test
+    public void testConcurrentFindProviders() throws Exception {
+
+        final AtomicInteger delegateLookups = new AtomicInteger();
+        XPersistentRepository repository = new AbstractPersistentRepository(storageFactory);
+        repository.addRepositoryDelegate(new MavenIdentityRepository(getLocalMavenConfiguration(), getLocalMavenProperties()) {
+            @Override
+            public Collection<Capability> findProviders(Requirement req) {
+                delegateLookups.incrementAndGet();
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.findProviders(req);
+            }
+        });
+
+        final XRequirement req = XRequirementBuilder.create(LOCAL_MAVEN_ID).getRequirement();
+        final XRepository target = repository;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Collection<Capability>>> futures = new ArrayList<Future<Collection<Capability>>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Collection<Capability>>() {
+                    @Override
+                    public Collection<Capability> call() throws Exception {
+                        startLatch.await();
+                        return target.findProviders(req);
+                    }
+                }));
+            }
+            startLatch.countDown();
+            XResource resource = null;
+            for (Future<Collection<Capability>> future : futures) {
+                Collection<Capability> caps = future.get();
+                assertEquals("One capability", 1, caps.size());
+                XResource aux = (XResource) caps.iterator().next().getResource();
+                if (resource == null) {
+                    resource = aux;
+                }
+                Assert.assertSame("Same stored resource", resource, aux);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("One delegate lookup", 1, delegateLookups.get());
+    }
+
+    /**
+     * Get a configuration for a local maven repository that has a bundle for {@link #LOCAL_MAVEN_ID}
+     */
+    private Configuration getLocalMavenConfiguration() throws Exception {
+        File localRepo = new File("./target/maven-persistent").getAbsoluteFile();
+        deleteRecursive(localRepo);
+        File artifactFile = new File(LOCAL_MAVEN_ID.getArtifactURL(localRepo.toURI().toURL()).toURI());
+        artifactFile.getParentFile().mkdirs();
+        final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, LOCAL_MAVEN_ID.getArtifactId());
+        archive.addClasses(Foo.class);
+        archive.setManifest(new Asset() {
+            @Override
+            public InputStream openStream() {
+                OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+                builder.addBundleManifestVersion(2);
+                builder.addBundleSymbolicName(archive.getName());
+                builder.addBundleVersion(LOCAL_MAVEN_ID.getVersion());
+                builder.addExportPackages(Foo.class);
+                return builder.openStream();
+            }
+        });
+        archive.as(ZipExporter.class).exportTo(artifactFile, true);
+        final List<URL> baseURLs = Collections.singletonList(localRepo.toURI().toURL());
+        return new Configuration() {
+            @Override
+            public List<URL> getBaseURLs() {
+                return baseURLs;
+            }
+        };
+    }
+
+    private ConfigurationPropertyProvider getLocalMavenProperties() {
+        return new ConfigurationPropertyProvider() {
+            @Override
+            public String getProperty(String key, String defaultValue) {
+                return defaultValue;
+            }
+        };
+    }
+
     private void verifyCapability(XCapability cap) throws IOException, MalformedURLException, BundleException {
 
         XResource resource = cap.getResource();
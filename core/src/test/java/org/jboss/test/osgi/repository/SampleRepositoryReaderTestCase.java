@@ -19,11 +19,13 @@ package org.jboss.test.osgi.repository;
  * #L%
  */
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
 
+import org.jboss.osgi.repository.InternPool;
 import org.jboss.osgi.repository.Namespace100;
 import org.jboss.osgi.repository.RepositoryReader;
 import org.jboss.osgi.repository.RepositoryXMLReader;
@@ -55,6 +57,22 @@ public class SampleRepositoryReaderTestCase extends AbstractRepositoryTest {
         verifyContent(attributes, resources);
     }
     
+    @Test
+    public void testInternedValues() throws Exception {
+        InternPool internPool = new InternPool();
+        InputStream input = getClass().getClassLoader().getResourceAsStream("xml/sample-repository.xml");
+        RepositoryReader reader = RepositoryXMLReader.create(input, internPool);
+        XResource resource = getResources(reader).get(0);
+
+        Capability bcap = resource.getCapabilities(BundleNamespace.BUNDLE_NAMESPACE).get(0);
+        Capability pcap = resource.getCapabilities(PackageNamespace.PACKAGE_NAMESPACE).get(0);
+        Object bversion = bcap.getAttributes().get(BundleNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE);
+        Object pversion = pcap.getAttributes().get(PackageNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE);
+        Assert.assertSame(bversion, pversion);
+        Assert.assertSame(bcap.getAttributes().get(BundleNamespace.BUNDLE_NAMESPACE), pcap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE));
+        Assert.assertSame(bversion, internPool.intern(Version.parseVersion("1.5.6")));
+    }
+
     static void verifyContent(Map<String, String> attributes, List<XResource> resources) {
         Assert.assertEquals("Two attributes", 2, attributes.size());
         Assert.assertEquals("OSGi Repository", attributes.get(Namespace100.Attribute.NAME.getLocalName()));